@@ -0,0 +1,133 @@
+package com.code.check.start.benchmark;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.profile.ProfilerConfig;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/21 16:50
+ * @desc 基准测试入口，参数与JMH命令行一致。默认开启GC分析（gc.alloc.rate.norm为每次调用分配的字节数），结果写入JSON文件；
+ * 指定 -Dbaseline=基线结果.json 时逐项比较平均耗时和分配字节数，任一项超过基线的 (1 + max-regression) 倍时以退出码1结束，
+ * 部署前在流水线中执行即可发现性能回退
+ */
+public class BenchmarkRunner {
+
+    private static final String DEFAULT_RESULT = "target/jmh-result.json";
+
+    private static final String ALLOC_METRIC = "gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        if (cli.shouldHelp()) {
+            cli.showHelp();
+            return;
+        }
+        if (cli.shouldList()) {
+            new Runner(cli).list();
+            return;
+        }
+
+        String result = cli.getResult().hasValue() ? cli.getResult().get() : DEFAULT_RESULT;
+        ChainedOptionsBuilder builder = new OptionsBuilder()
+                .parent(cli)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result);
+        if (!hasGcProfiler(cli)) {
+            builder.addProfiler(GCProfiler.class);
+        }
+        new Runner(builder.build()).run();
+
+        String baseline = System.getProperty("baseline");
+        if (baseline != null && !baseline.isEmpty()) {
+            double maxRegression = Double.parseDouble(System.getProperty("max-regression", "0.15"));
+            if (!compare(baseline, result, maxRegression)) {
+                System.exit(1);
+            }
+        }
+    }
+
+    private static boolean hasGcProfiler(CommandLineOptions cli) {
+        for (ProfilerConfig profiler : cli.getProfilers()) {
+            if ("gc".equals(profiler.getKlass()) || GCProfiler.class.getName().equals(profiler.getKlass())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 与基线逐项比较，基线中没有的基准只输出不比较
+     *
+     * @return 没有超过阈值的回退时返回true
+     */
+    static boolean compare(String baselineFile, String resultFile, double maxRegression) throws IOException {
+        Map<String, double[]> baseline = load(baselineFile);
+        Map<String, double[]> current = load(resultFile);
+        boolean passed = true;
+        System.out.printf("%n%-100s %14s %14s %14s %14s%n", "Benchmark", "base(score)", "now(score)", "base(B/op)", "now(B/op)");
+        for (Map.Entry<String, double[]> entry : current.entrySet()) {
+            double[] now = entry.getValue();
+            double[] base = baseline.get(entry.getKey());
+            String verdict = "";
+            if (base != null) {
+                boolean slower = now[0] > base[0] * (1 + maxRegression);
+                // 分配量接近0时波动没有意义
+                boolean allocates = base[1] >= 1 && now[1] > base[1] * (1 + maxRegression);
+                if (slower || allocates) {
+                    passed = false;
+                    verdict = slower && allocates ? "  REGRESSION(time, alloc)" : slower ? "  REGRESSION(time)" : "  REGRESSION(alloc)";
+                }
+            }
+            System.out.printf("%-100s %14s %14.3f %14s %14.1f%s%n", entry.getKey(),
+                    base == null ? "-" : String.format("%.3f", base[0]), now[0],
+                    base == null ? "-" : String.format("%.1f", base[1]), now[1], verdict);
+        }
+        System.out.println(passed ? "No regression beyond " + maxRegression * 100 + "%" : "Performance regression detected");
+        return passed;
+    }
+
+    /**
+     * 基准名+参数 -> {平均耗时, 每次调用分配字节数}
+     */
+    private static Map<String, double[]> load(String file) throws IOException {
+        JSONArray runs = JSON.parseArray(new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8));
+        Map<String, double[]> scores = new LinkedHashMap<>();
+        for (int i = 0; i < runs.size(); i++) {
+            JSONObject run = runs.getJSONObject(i);
+            String key = run.getString("benchmark");
+            JSONObject params = run.getJSONObject("params");
+            if (params != null && !params.isEmpty()) {
+                key += new TreeMap<>(params).toString();
+            }
+            double score = run.getJSONObject("primaryMetric").getDoubleValue("score");
+            double alloc = 0;
+            JSONObject secondary = run.getJSONObject("secondaryMetrics");
+            if (secondary != null) {
+                for (String name : secondary.keySet()) {
+                    // 旧版本JMH的指标名带"·"前缀
+                    if (name.endsWith(ALLOC_METRIC)) {
+                        alloc = secondary.getJSONObject(name).getDoubleValue("score");
+                    }
+                }
+            }
+            scores.put(key, new double[]{score, alloc});
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,173 @@
+package com.code.check.start.benchmark;
+
+import com.code.check.start.model.CodeSubmission;
+import com.code.check.start.model.FileInspectionResult;
+import com.code.check.start.service.gitlab.AnalysisService;
+import com.code.check.start.service.gitlab.CodeProcessingService;
+import org.gitlab4j.api.models.Diff;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/21 15:10
+ * @desc 基准测试样本：录制的gitlab diff（与单元测试共用src/test/resources/diffs）和大模型的真实返回格式
+ */
+public final class Fixtures {
+
+    public static final String[] DIFFS = {
+            "analysis-service-concurrency", "code-processing-packing", "review-model-client-zero-context",
+            "readme-store", "properties-multi-file", "sql-no-newline", "new-js-file"
+    };
+
+    public static final String[] RESPONSES = {
+            "plain-json", "no-issues", "fenced-json", "preamble-json", "many-issues"
+    };
+
+    /**
+     * 与application.properties中的默认配置一致
+     */
+    private static final String IGNORE_FILE_TYPES = ".md,.txt,.json,Test.java,Tests.java,DTO.java,DO.java,BO.java,VO.java,pom.xml,Enum.java,Status.java";
+
+    private static final int MAX_CODE_LINES = 1000;
+
+    private Fixtures() {
+    }
+
+    public static String diff(String name) {
+        return read("fixtures/diffs/" + name + ".diff");
+    }
+
+    public static String response(String name) {
+        return read("fixtures/responses/" + name + ".txt");
+    }
+
+    /**
+     * 按gitlab接口的返回格式拆分diff样本：每个文件一个Diff，内容从第一个hunk开始
+     */
+    public static List<Diff> diffs(String... names) {
+        List<Diff> diffs = new ArrayList<>();
+        for (String name : names) {
+            String content = diff(name);
+            int start = content.indexOf("diff --git ");
+            while (start >= 0) {
+                int next = content.indexOf("\ndiff --git ", start);
+                int end = next < 0 ? content.length() : next + 1;
+                Diff diff = toDiff(content.substring(start, end));
+                if (diff != null) {
+                    diffs.add(diff);
+                }
+                start = next < 0 ? -1 : next + 1;
+            }
+        }
+        return diffs;
+    }
+
+    /**
+     * 单个diff样本中第一个文件的hunk内容
+     */
+    public static String hunks(String name) {
+        return diffs(name).get(0).getDiff();
+    }
+
+    public static CodeProcessingService codeProcessingService() {
+        CodeProcessingService service = new CodeProcessingService(null);
+        setField(service, "ignoreFileTypes", IGNORE_FILE_TYPES);
+        setField(service, "maxCodeLines", MAX_CODE_LINES);
+        return service;
+    }
+
+    public static CodeSubmission submission() {
+        CodeSubmission submission = new CodeSubmission();
+        submission.setProjectId(1024L);
+        submission.setProjectName("hshccforder");
+        submission.setAuthor("张三");
+        submission.setCommitId("4f0ce97a1c2d3e4f5a6b7c8d9e0f1a2b3c4d5e6f");
+        submission.setMessage("story-7424: 分配线索页面样式调整，列表查询效率优化");
+        submission.setType(CodeSubmission.SubmissionType.PUSH);
+        return submission;
+    }
+
+    /**
+     * 按顺序循环使用返回样本，生成指定文件数的检测结果
+     */
+    public static Map<String, FileInspectionResult> results(int files) {
+        Map<String, FileInspectionResult> results = new LinkedHashMap<>();
+        for (int i = 0; i < files; i++) {
+            String filePath = "src/main/java/com/hshc/hshccforder/modules/capital/route/service/CapitalRoute" + i + "ServiceImpl.java";
+            results.put(filePath, AnalysisService.parseFileAnalysisResult(response(RESPONSES[i % RESPONSES.length]),
+                    filePath, System.currentTimeMillis()));
+        }
+        return results;
+    }
+
+    private static Diff toDiff(String fileDiff) {
+        int hunk = fileDiff.startsWith("@@") ? 0 : fileDiff.indexOf("\n@@") + 1;
+        if (hunk <= 0) {
+            return null;
+        }
+        Diff diff = new Diff();
+        diff.setOldPath(path(fileDiff, "\n--- "));
+        diff.setNewPath(path(fileDiff, "\n+++ "));
+        diff.setNewFile(diff.getOldPath() == null);
+        diff.setDeletedFile(diff.getNewPath() == null);
+        diff.setRenamedFile(false);
+        if (diff.getOldPath() == null) {
+            diff.setOldPath(diff.getNewPath());
+        }
+        diff.setDiff(fileDiff.substring(hunk));
+        return diff;
+    }
+
+    /**
+     * 解析"--- a/路径"或"+++ b/路径"，/dev/null返回null
+     */
+    private static String path(String fileDiff, String marker) {
+        int start = fileDiff.indexOf(marker);
+        if (start < 0) {
+            return null;
+        }
+        start += marker.length();
+        int end = fileDiff.indexOf('\n', start);
+        String path = fileDiff.substring(start, end < 0 ? fileDiff.length() : end).trim();
+        if ("/dev/null".equals(path)) {
+            return null;
+        }
+        return path.startsWith("a/") || path.startsWith("b/") ? path.substring(2) : path;
+    }
+
+    private static String read(String resource) {
+        try (InputStream in = Fixtures.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Fixture not found: " + resource);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read fixture " + resource, e);
+        }
+    }
+
+    private static void setField(Object target, String name, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to set " + name, e);
+        }
+    }
+}
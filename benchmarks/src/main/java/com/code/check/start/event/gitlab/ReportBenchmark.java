@@ -0,0 +1,52 @@
+package com.code.check.start.event.gitlab;
+
+import com.code.check.start.benchmark.Fixtures;
+import com.code.check.start.model.CodeSubmission;
+import com.code.check.start.model.FileInspectionResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/21 16:15
+ * @desc 检测报告渲染：按文件数生成分段后的企业微信报告
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReportBenchmark {
+
+    @Param({"5", "50", "400"})
+    public int files;
+
+    private CodeSubmission submission;
+
+    private Map<String, FileInspectionResult> results;
+
+    @Setup
+    public void setup() {
+        submission = Fixtures.submission();
+        results = Fixtures.results(files);
+    }
+
+    @Benchmark
+    public List<String> generateSummaryNotification() {
+        return GitlabPushEventListener.generateSummaryNotification(submission, results);
+    }
+}
@@ -0,0 +1,53 @@
+package com.code.check.start.service.gitlab;
+
+import com.code.check.start.benchmark.Fixtures;
+import com.code.check.start.model.FileInspectionResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/21 16:00
+ * @desc 大模型返回解析：纯JSON、无问题、```json代码块、带说明文字、多问题等返回格式
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalysisParsingBenchmark {
+
+    @Param({"plain-json", "no-issues", "fenced-json", "preamble-json", "many-issues"})
+    public String response;
+
+    private String text;
+
+    private final String filePath = "src/main/java/com/hshc/hshccforder/modules/capital/route/service/CapitalRouteOrderServiceImpl.java";
+
+    @Setup
+    public void setup() {
+        text = Fixtures.response(response);
+    }
+
+    @Benchmark
+    public String extractJsonFromText() {
+        return AnalysisService.extractJsonFromText(text);
+    }
+
+    @Benchmark
+    public FileInspectionResult parseFileAnalysisResult() {
+        return AnalysisService.parseFileAnalysisResult(text, filePath, 0L);
+    }
+}
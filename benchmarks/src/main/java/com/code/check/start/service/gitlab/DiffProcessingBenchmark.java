@@ -0,0 +1,75 @@
+package com.code.check.start.service.gitlab;
+
+import com.code.check.start.benchmark.Fixtures;
+import com.code.check.start.model.CodeChange;
+import com.code.check.start.model.CodeLines;
+import org.gitlab4j.api.models.Diff;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/21 15:30
+ * @desc diff解析与按文件分组：单个录制diff的解析，以及全部样本（多文件、新文件、忽略文件类型）的分组
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiffProcessingBenchmark {
+
+    private CodeProcessingService service;
+
+    private List<Diff> corpus;
+
+    @Setup
+    public void setup() {
+        service = Fixtures.codeProcessingService();
+        corpus = Fixtures.diffs(Fixtures.DIFFS);
+    }
+
+    @State(Scope.Benchmark)
+    public static class Sample {
+
+        @Param({"analysis-service-concurrency", "code-processing-packing", "review-model-client-zero-context",
+                "readme-store", "properties-multi-file", "sql-no-newline", "new-js-file"})
+        public String diff;
+
+        private String hunks;
+
+        @Setup
+        public void setup() {
+            hunks = Fixtures.hunks(diff);
+        }
+    }
+
+    @Benchmark
+    public void parseDiffContent(Sample sample, Blackhole blackhole) {
+        CodeLines addedLines = new CodeLines();
+        CodeLines removedLines = new CodeLines();
+        service.parseDiffContent(sample.hunks, addedLines, removedLines);
+        blackhole.consume(addedLines);
+        blackhole.consume(removedLines);
+    }
+
+    @Benchmark
+    public Map<String, CodeChange> groupDiffsByFile() {
+        return service.groupDiffsByFile(corpus);
+    }
+}
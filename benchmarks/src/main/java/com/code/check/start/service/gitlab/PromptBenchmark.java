@@ -0,0 +1,56 @@
+package com.code.check.start.service.gitlab;
+
+import com.code.check.start.benchmark.Fixtures;
+import com.code.check.start.model.CodeChange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/21 15:45
+ * @desc 单文件提示词生成：完整版与精简版提示词
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PromptBenchmark {
+
+    @Param({"analysis-service-concurrency", "review-model-client-zero-context", "new-js-file"})
+    public String diff;
+
+    private CodeProcessingService service;
+
+    private CodeChange change;
+
+    private final String commitMessage = "story-7424: 分配线索页面样式调整，列表查询效率优化";
+
+    @Setup
+    public void setup() {
+        service = Fixtures.codeProcessingService();
+        change = service.groupDiffsByFile(Fixtures.diffs(diff)).values().iterator().next();
+    }
+
+    @Benchmark
+    public String generateFilePrompt() {
+        return service.generateFilePrompt(change, commitMessage);
+    }
+
+    @Benchmark
+    public String generateFilePrompt2() {
+        return service.generateFilePrompt2(change, commitMessage);
+    }
+}
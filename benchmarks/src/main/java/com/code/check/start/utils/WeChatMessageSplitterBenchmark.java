@@ -0,0 +1,53 @@
+package com.code.check.start.utils;
+
+import com.code.check.start.benchmark.Fixtures;
+import com.code.check.start.event.gitlab.GitlabPushEventListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/21 16:30
+ * @desc 消息分割：按文件数生成的完整报告（分段拼接）重新按markdown和文本的长度限制分割；
+ * 400和4000个文件的报告相差10倍，用于确认分割耗时随报告长度线性增长
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WeChatMessageSplitterBenchmark {
+
+    @Param({"5", "50", "400", "4000"})
+    public int files;
+
+    private String report;
+
+    @Setup
+    public void setup() {
+        report = String.join("", GitlabPushEventListener.generateSummaryNotification(Fixtures.submission(), Fixtures.results(files)));
+    }
+
+    @Benchmark
+    public List<String> splitMarkdown() {
+        return WeChatMessageSplitter.splitMessage(report, true);
+    }
+
+    @Benchmark
+    public List<String> splitText() {
+        return WeChatMessageSplitter.splitMessage(report, false);
+    }
+}
@@ -3,6 +3,8 @@ package com.code.check.start.config;
 import com.code.check.start.service.OrderToolsService;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -14,6 +16,11 @@ import org.springframework.context.annotation.Configuration;
 @Configuration
 public class AIConfig {
 
+    /**
+     * 代码审查使用的系统提示词（同时参与审查结果缓存键的计算）
+     */
+    public static final String GITLAB_REVIEW_SYSTEM_PROMPT = "高级代码审计员，分析代码安全漏洞与性能问题";
+
     @Bean
     public ChatClient carChatClient(
             ChatClient.Builder builder,
@@ -31,7 +38,22 @@ public class AIConfig {
             ChatClient.Builder builder
     ) {
         return builder
-                .defaultSystem("高级代码审计员，分析代码安全漏洞与性能问题")
+                .defaultSystem(GITLAB_REVIEW_SYSTEM_PROMPT)
+                .build();
+    }
+
+    /**
+     * 备用代码审查模型（如更小的模型），主模型熔断或调用失败时使用
+     */
+    @Bean
+    @ConditionalOnProperty(name = "app.code-inspect.fallback.enabled", havingValue = "true")
+    public ChatClient fallbackChatClient(
+            ChatClient.Builder builder,
+            @Value("${app.code-inspect.fallback.model:qwen-turbo}") String fallbackModel
+    ) {
+        return builder
+                .defaultSystem(GITLAB_REVIEW_SYSTEM_PROMPT)
+                .defaultOptions(ChatOptions.builder().model(fallbackModel).build())
                 .build();
     }
 
@@ -23,11 +23,18 @@ public class GitLabConfig {
     @Value("${gitlab.private-token}")
     private String privateToken;
 
+    @Value("${gitlab.fetch.connect-timeout-millis:5000}")
+    private int connectTimeoutMillis;
+
+    @Value("${gitlab.fetch.read-timeout-millis:30000}")
+    private int readTimeoutMillis;
+
     @Bean
     public GitLabApi gitLabApi() throws GitLabApiException {
         GitLabApi gitLabApi = new GitLabApi(GitLabApi.ApiVersion.V4, gitLabBaseUrl, privateToken);
         // 关键配置：处理 HTTP 和证书问题
         gitLabApi.setIgnoreCertificateErrors(true); // 允许 HTTP/自签名证书
+        gitLabApi.setRequestTimeout(connectTimeoutMillis, readTimeoutMillis);
         // 测试连接
         Version version = gitLabApi.getVersion();
         log.info("GitLab version: {}", version);
@@ -7,15 +7,17 @@ import com.code.check.start.model.CodeIssue;
 import com.code.check.start.model.CodeSubmission;
 import com.code.check.start.model.FileInspectionResult;
 import com.code.check.start.service.gitlab.AnalysisService;
-import com.code.check.start.service.notify.WeChatNotificationService;
+import com.code.check.start.service.notify.NotificationDigest;
+import com.code.check.start.service.queue.ReviewJobRegistry;
 import com.code.check.start.utils.DateTimeUtil;
+import com.code.check.start.utils.WeChatMarkdownWriter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.ObjectUtils;
 
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -30,26 +32,31 @@ public class GitlabPushEventListener extends GitLabEventListenerAbs {
     @Autowired
     private AnalysisService analysisService;
 
-    @Value("${wechat.webhook-url}")
-    private String webhookUrl;
+    @Autowired
+    private ReviewJobRegistry jobRegistry;
+
+    @Autowired
+    private NotificationDigest notificationDigest;
 
     @Override
     public void onEvent(GitlabEvent event) {
         log.info("gitlab push 事件监听:{}", JSON.toJSONString(event));
         CodeSubmission submission = event.getSubmission();
-        String message = submission.getMessage();
-        if (!ObjectUtils.isEmpty(message)) {
-            String lowerCase = message.trim().toLowerCase();
-            if (lowerCase.startsWith("merge") || lowerCase.startsWith("revert")) {
-                log.info("合并请求事件监听不处理:{}", JSON.toJSONString(event));
-                return;
-            }
+        if (isMergeOrRevertMessage(submission.getMessage())) {
+            log.info("合并请求事件监听不处理:{}", JSON.toJSONString(event));
+            return;
         }
         Map<String, FileInspectionResult> stringFileInspectionResultMap = analysisService.analyzeEachFileInSubmission(submission);
-        String s = generateSummaryNotification(submission, stringFileInspectionResultMap);
-        log.info("gitlab push 事件汇总通知:{}", s);
-        WeChatNotificationService weChatNotificationService = new WeChatNotificationService(this.webhookUrl);
-        weChatNotificationService.sendMarkdownMessage(s);
+        if (jobRegistry.isCancelled(submission.getSubmissionId())) {
+            log.info("提交{}的检测已被取消，不发送通知", submission.getCommitId());
+            return;
+        }
+        List<String> segments = generateSummaryNotification(submission, stringFileInspectionResultMap);
+        log.info("gitlab push 事件汇总通知({}段):{}", segments.size(), segments);
+        // 写入发件箱（或项目汇总窗口）后由后台线程发送，发送失败自动重试，不需要重新检测
+        if (!notificationDigest.submit(submission, stringFileInspectionResultMap, segments)) {
+            log.error("提交{}的检测报告写入发件箱失败", submission.getCommitId());
+        }
     }
 
 
@@ -59,9 +66,23 @@ public class GitlabPushEventListener extends GitLabEventListenerAbs {
     }
 
 
-    public static String generateSummaryNotification(CodeSubmission submission,
-                                                     Map<String, FileInspectionResult> results) {
-        StringBuilder markdown = new StringBuilder();
+    /**
+     * 合并、回滚产生的提交不做检测
+     */
+    public static boolean isMergeOrRevertMessage(String message) {
+        if (ObjectUtils.isEmpty(message)) {
+            return false;
+        }
+        String lowerCase = message.trim().toLowerCase();
+        return lowerCase.startsWith("merge") || lowerCase.startsWith("revert");
+    }
+
+    /**
+     * 生成检测报告：报告头、每个文件的概要、每个问题分别作为一块写入，直接得到企业微信分段，块不会被拆到两条消息中
+     */
+    public static List<String> generateSummaryNotification(CodeSubmission submission,
+                                                           Map<String, FileInspectionResult> results) {
+        WeChatMarkdownWriter markdown = new WeChatMarkdownWriter();
 
         // 标题部分
         markdown.append("### ⚠️【代码检查】AI检查结果-")
@@ -69,10 +90,14 @@ public class GitlabPushEventListener extends GitLabEventListenerAbs {
                 .append("\n\n");
 
         // 基本信息部分
-        markdown.append("**项目：**").append(escapeWeChatMarkdown(submission.getProjectName())).append("\n");
-        markdown.append("**提交人：**").append(escapeWeChatMarkdown(submission.getAuthor())).append("\n");
-        markdown.append("**提交信息：**").append(escapeWeChatMarkdown(submission.getMessage())).append("\n");
+        markdown.append("**项目：**").appendEscaped(submission.getProjectName()).append("\n");
+        markdown.append("**提交人：**").appendEscaped(submission.getAuthor()).append("\n");
+        markdown.append("**提交信息：**").appendEscaped(submission.getMessage()).append("\n");
+        if (submission.getCommits() != null && submission.getCommits().size() > 1) {
+            markdown.append("**提交数：**").append(submission.getCommits().size()).append("\n");
+        }
         markdown.append("**检查文件数：**").append(results.size()).append("\n\n");
+        markdown.endBlock();
 
         // 按文件遍历结果
         int fileIndex = 1;
@@ -82,18 +107,22 @@ public class GitlabPushEventListener extends GitLabEventListenerAbs {
 
             // 文件信息
             markdown.append("#### 文件").append(fileIndex).append("：")
-                    .append(escapeWeChatMarkdown(filePath)).append("\n");
-            markdown.append("**文件评价：**").append(escapeWeChatMarkdown(fileResult.getFileEvaluation())).append("\n");
+                    .appendEscaped(filePath).append("\n");
+            if (fileResult.getRelatedCommits() != null && !fileResult.getRelatedCommits().isEmpty()) {
+                markdown.append("**相关提交：**").appendEscaped(String.join("；", fileResult.getRelatedCommits())).append("\n");
+            }
+            markdown.append("**文件评价：**").appendEscaped(fileResult.getFileEvaluation()).append("\n");
             markdown.append("**问题数：**").append(fileResult.getIssues().size()).append("\n");
 
             // 问题列表
             if (!fileResult.getIssues().isEmpty()) {
                 markdown.append("**问题详情：**\n");
+                markdown.endBlock();
                 int issueIndex = 1;
                 for (CodeIssue issue : fileResult.getIssues()) {
                     markdown.append(issueIndex).append(". **问题等级：**").append(issue.getSeverity()).append("\n");
-                    markdown.append("   **代码行数：**").append(!ObjectUtils.isEmpty(issue.getLineNumber()) && issue.getLineNumber() > 0 ? issue.getLineNumber() : "未知").append("\n");
-                    markdown.append("   **问题描述：**").append(escapeWeChatMarkdown(issue.getDescription())).append("\n");
+                    markdown.append("   **代码行数：**").append(!ObjectUtils.isEmpty(issue.getLineNumber()) && issue.getLineNumber() > 0 ? String.valueOf(issue.getLineNumber()) : "未知").append("\n");
+                    markdown.append("   **问题描述：**").appendEscaped(issue.getDescription()).append("\n");
 
                     // 代码块处理 - 企业微信Markdown支持```代码块
                     if (StringUtils.isNotBlank(issue.getFixedCodeExample())) {
@@ -104,9 +133,12 @@ public class GitlabPushEventListener extends GitLabEventListenerAbs {
 
                     if (StringUtils.isNotBlank(issue.getSuggestedFix())) {
                         markdown.append("   **修改建议：**\n> ")
-                                .append(escapeWeChatMarkdown(issue.getSuggestedFix()))
+                                .appendEscaped(issue.getSuggestedFix())
                                 .append("\n");
                     }
+                    if (issueIndex < fileResult.getIssues().size()) {
+                        markdown.endBlock();
+                    }
                     issueIndex++;
                 }
             } else {
@@ -116,30 +148,11 @@ public class GitlabPushEventListener extends GitLabEventListenerAbs {
             if (fileIndex < results.size()) {
                 markdown.append("\n---\n\n"); // 分隔线
             }
+            markdown.endBlock();
             fileIndex++;
         }
 
-        return markdown.toString();
-    }
-
-    /**
-     * 转义企业微信Markdown特殊字符
-     */
-    private static String escapeWeChatMarkdown(String text) {
-        if (text == null) {
-            return "";
-        }
-        // 企业微信Markdown需要转义的字符
-        return text.replace("\\", "\\\\")
-                .replace("*", "\\*")
-                .replace("_", "\\_")
-                .replace("~", "\\~")
-                .replace("`", "\\`")
-                .replace("#", "\\#")
-                .replace("[", "\\[")
-                .replace("]", "\\]")
-                .replace("(", "\\(")
-                .replace(")", "\\)");
+        return markdown.toSegments();
     }
 
     /**
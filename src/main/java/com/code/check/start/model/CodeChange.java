@@ -20,9 +20,14 @@ public class CodeChange {
     private Boolean isNewFile;
     private Boolean isDeleted;
 
-    private List<CodeLine> addedLines;
+    private CodeLines addedLines;
 
     private List<CodeLine> modifiedLines;
 
-    private List<CodeLine> removedLines;
+    private CodeLines removedLines;
+
+    /**
+     * 修改过该文件的提交（推送合并审查时），格式为"短SHA 标题"
+     */
+    private List<String> relatedCommits;
 }
@@ -0,0 +1,202 @@
+package com.code.check.start.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/18 20:40
+ * @desc 单个文件代码行的紧凑存储：行号存放在int数组中，所有代码内容共用一个字符缓冲区并按偏移量切分，
+ * 每行只占两个int，不再为每行创建CodeLine、Integer和String对象。
+ * 内容全部为Latin-1字符时按字节存储，出现其他字符后再整体转为char存储。
+ * 对外仍以List&lt;CodeLine&gt;的形式读取，get时才创建CodeLine视图对象。
+ */
+public class CodeLines extends AbstractList<CodeLine> implements RandomAccess {
+
+    private static final int DEFAULT_LINES = 16;
+    private static final int DEFAULT_CHARS = 512;
+
+    private int[] lineNumbers;
+
+    /**
+     * 第i行内容为缓冲区中 [offsets[i], offsets[i + 1]) 的部分
+     */
+    private int[] offsets;
+
+    /**
+     * Latin-1存储时使用，否则为null
+     */
+    private byte[] latin1;
+
+    /**
+     * 出现非Latin-1字符后使用
+     */
+    private char[] chars;
+
+    private int size;
+
+    public CodeLines() {
+        this(DEFAULT_LINES, DEFAULT_CHARS);
+    }
+
+    public CodeLines(int expectedLines, int expectedChars) {
+        lineNumbers = new int[Math.max(1, expectedLines)];
+        offsets = new int[Math.max(1, expectedLines) + 1];
+        latin1 = new byte[Math.max(1, expectedChars)];
+    }
+
+    /**
+     * 追加一行，内容为 source 中 [start, end) 的部分，直接复制进缓冲区
+     */
+    public void append(int lineNumber, CharSequence source, int start, int end) {
+        int length = end - start;
+        ensureLineCapacity(size + 1);
+        int offset = offsets[size];
+        ensureCharCapacity(offset + length);
+        if (latin1 != null) {
+            for (int i = 0; i < length; i++) {
+                char c = source.charAt(start + i);
+                if (c > 0xFF) {
+                    inflate();
+                    copyChars(source, start + i, end, offset + i);
+                    break;
+                }
+                latin1[offset + i] = (byte) c;
+            }
+        } else {
+            copyChars(source, start, end, offset);
+        }
+        lineNumbers[size] = lineNumber;
+        offsets[size + 1] = offset + length;
+        size++;
+        modCount++;
+    }
+
+    public void append(int lineNumber, String codeLine) {
+        String code = codeLine == null ? "" : codeLine;
+        append(lineNumber, code, 0, code.length());
+    }
+
+    @Override
+    public boolean add(CodeLine codeLine) {
+        append(codeLine.getLineNumber() == null ? -1 : codeLine.getLineNumber(), codeLine.getCodeLine());
+        return true;
+    }
+
+    @Override
+    public CodeLine get(int index) {
+        checkIndex(index);
+        return new CodeLine(lineNumbers[index], codeLineAt(index));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public int lineNumberAt(int index) {
+        checkIndex(index);
+        return lineNumbers[index];
+    }
+
+    public String codeLineAt(int index) {
+        checkIndex(index);
+        int offset = offsets[index];
+        int length = offsets[index + 1] - offset;
+        return latin1 != null
+                ? new String(latin1, offset, length, StandardCharsets.ISO_8859_1)
+                : new String(chars, offset, length);
+    }
+
+    /**
+     * 把第index行的内容追加到builder，不创建中间字符串
+     */
+    public StringBuilder appendCodeLine(StringBuilder builder, int index) {
+        checkIndex(index);
+        int offset = offsets[index];
+        int end = offsets[index + 1];
+        if (latin1 != null) {
+            for (int i = offset; i < end; i++) {
+                builder.append((char) (latin1[i] & 0xFF));
+            }
+        } else {
+            builder.append(chars, offset, end - offset);
+        }
+        return builder;
+    }
+
+    /**
+     * 只保留前newSize行
+     */
+    public void truncate(int newSize) {
+        if (newSize < size) {
+            size = Math.max(0, newSize);
+            modCount++;
+        }
+    }
+
+    @Override
+    public void clear() {
+        truncate(0);
+    }
+
+    /**
+     * 释放多余的数组容量，解析完成后调用
+     */
+    public void trimToSize() {
+        lineNumbers = Arrays.copyOf(lineNumbers, Math.max(1, size));
+        offsets = Arrays.copyOf(offsets, Math.max(1, size) + 1);
+        int charLength = offsets[size];
+        if (latin1 != null) {
+            latin1 = Arrays.copyOf(latin1, charLength);
+        } else {
+            chars = Arrays.copyOf(chars, charLength);
+        }
+    }
+
+    private void copyChars(CharSequence source, int start, int end, int offset) {
+        if (source instanceof String) {
+            ((String) source).getChars(start, end, chars, offset);
+        } else {
+            for (int i = start; i < end; i++) {
+                chars[offset + i - start] = source.charAt(i);
+            }
+        }
+    }
+
+    private void inflate() {
+        chars = new char[latin1.length];
+        for (int i = 0; i < latin1.length; i++) {
+            chars[i] = (char) (latin1[i] & 0xFF);
+        }
+        latin1 = null;
+    }
+
+    private void ensureLineCapacity(int lines) {
+        if (lines > lineNumbers.length) {
+            int capacity = Math.max(lines, lineNumbers.length * 2);
+            lineNumbers = Arrays.copyOf(lineNumbers, capacity);
+            offsets = Arrays.copyOf(offsets, capacity + 1);
+        }
+    }
+
+    private void ensureCharCapacity(int length) {
+        int current = latin1 != null ? latin1.length : chars.length;
+        if (length > current) {
+            int capacity = Math.max(length, current * 2);
+            if (latin1 != null) {
+                latin1 = Arrays.copyOf(latin1, capacity);
+            } else {
+                chars = Arrays.copyOf(chars, capacity);
+            }
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
@@ -5,6 +5,8 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.List;
+
 /**
  * @Author yueyue.guan
  * @date 2025/8/18 15:57
@@ -16,6 +18,10 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 public class CodeSubmission {
 
+    /**
+     * 入队时生成的唯一标识
+     */
+    private String submissionId;
     private Long projectId;
     private String projectName;
     private String repositoryUrl;
@@ -26,8 +32,29 @@ public class CodeSubmission {
     private String message;
     private SubmissionType type;
 
+    /**
+     * 推送合并审查时推送前的SHA（payload中的before），commitId为推送后的SHA
+     */
+    private String baseCommitId;
+
+    private String ref;
+
+    /**
+     * 推送合并审查时本次推送包含的提交，用于报告中标注文件由哪些提交修改
+     */
+    private List<CommitInfo> commits;
+
     public enum SubmissionType {
         PUSH, MERGE_REQUEST, TAG
     }
 
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class CommitInfo {
+        private String id;
+        private String title;
+        private String author;
+    }
+
 }
@@ -1,6 +1,5 @@
 package com.code.check.start.model;
 
-import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
@@ -13,7 +12,6 @@ import java.util.List;
  */
 @Data
 @NoArgsConstructor
-@AllArgsConstructor
 public class FileInspectionResult {
 
     private String filePath;
@@ -21,4 +19,17 @@ public class FileInspectionResult {
     private List<CodeIssue> issues;
     private Long processingTimeMs;
     private String fileEvaluation;
+
+    /**
+     * 修改过该文件的提交，仅用于报告展示
+     */
+    private List<String> relatedCommits;
+
+    public FileInspectionResult(String filePath, Boolean hasIssues, List<CodeIssue> issues, Long processingTimeMs, String fileEvaluation) {
+        this.filePath = filePath;
+        this.hasIssues = hasIssues;
+        this.issues = issues;
+        this.processingTimeMs = processingTimeMs;
+        this.fileEvaluation = fileEvaluation;
+    }
 }
@@ -0,0 +1,188 @@
+package com.code.check.start.service.ai;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/18 16:20
+ * @desc 大模型调用的自适应并发限制（AIMD）：耗时稳定时并发上限加性增长，
+ * 遇到限流或超时时乘性下降；超出上限的调用排队等待，直到拿到许可或到达截止时间
+ */
+@Component
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+    /**
+     * 耗时基线的平滑系数
+     */
+    private static final double BASELINE_SMOOTHING = 0.05;
+
+    @Value("${app.code-inspect.limiter.initial-limit:4}")
+    private int initialLimit;
+
+    @Value("${app.code-inspect.limiter.min-limit:1}")
+    private int minLimit;
+
+    @Value("${app.code-inspect.limiter.max-limit:32}")
+    private int maxLimit;
+
+    /**
+     * 限流或超时时并发上限的缩减比例
+     */
+    @Value("${app.code-inspect.limiter.backoff-ratio:0.5}")
+    private double backoffRatio;
+
+    /**
+     * 调用耗时不超过基线的该倍数时视为稳定，允许增长并发上限
+     */
+    @Value("${app.code-inspect.limiter.latency-tolerance:2.0}")
+    private double latencyTolerance;
+
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    private double baselineLatencyMs = -1;
+
+    /**
+     * 最近一次缩减的时间，此前发出的调用再失败不重复缩减
+     */
+    private long lastDecreaseAt;
+
+    private long increases;
+    private long decreases;
+    private long drops;
+
+    @PostConstruct
+    public void init() {
+        limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * 获取调用许可，超过截止时间仍未获取到时抛出PermitWaitTimeoutException，线程被中断时抛出ModelCallInterruptedException
+     *
+     * @param deadlineAt 截止时间戳（毫秒）
+     */
+    public synchronized Permit acquire(long deadlineAt) {
+        waiting++;
+        try {
+            while (inFlight >= currentLimit()) {
+                long remaining = deadlineAt - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new PermitWaitTimeoutException("等待大模型并发许可超时");
+                }
+                wait(remaining);
+            }
+            inFlight++;
+            return new Permit();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ModelCallInterruptedException("等待大模型并发许可被中断");
+        } finally {
+            waiting--;
+        }
+    }
+
+    /**
+     * 不等待地获取许可，没有空闲许可时返回null
+     */
+    public synchronized Permit tryAcquire() {
+        if (inFlight >= currentLimit()) {
+            return null;
+        }
+        inFlight++;
+        return new Permit();
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("limit", currentLimit());
+        stats.put("rawLimit", Math.round(limit * 100) / 100.0);
+        stats.put("inFlight", inFlight);
+        stats.put("queueDepth", waiting);
+        stats.put("baselineLatencyMs", Math.round(baselineLatencyMs));
+        stats.put("increases", increases);
+        stats.put("decreases", decreases);
+        stats.put("drops", drops);
+        return stats;
+    }
+
+    private int currentLimit() {
+        return Math.max(minLimit, (int) limit);
+    }
+
+    private synchronized void onSuccess(long latencyMs) {
+        inFlight--;
+        boolean stable = baselineLatencyMs < 0 || latencyMs <= baselineLatencyMs * latencyTolerance;
+        // 只有并发确实用到接近上限时才增长，避免空闲时上限无限膨胀
+        if (stable && inFlight + 1 >= currentLimit() / 2 && limit < maxLimit) {
+            limit = Math.min(maxLimit, limit + 1.0 / Math.max(1.0, limit));
+            increases++;
+        }
+        baselineLatencyMs = baselineLatencyMs < 0
+                ? latencyMs
+                : baselineLatencyMs * (1 - BASELINE_SMOOTHING) + latencyMs * BASELINE_SMOOTHING;
+        notifyAll();
+    }
+
+    private synchronized void onDropped(long acquiredAt) {
+        inFlight--;
+        drops++;
+        if (acquiredAt >= lastDecreaseAt) {
+            double previous = limit;
+            limit = Math.max(minLimit, limit * backoffRatio);
+            lastDecreaseAt = System.currentTimeMillis();
+            decreases++;
+            log.warn("Model call throttled or timed out, concurrency limit {} -> {}", (int) previous, currentLimit());
+        }
+        notifyAll();
+    }
+
+    private synchronized void onIgnore() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * 一次调用许可，必须且只会释放一次
+     */
+    public class Permit {
+
+        private final long acquiredAt = System.currentTimeMillis();
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        /**
+         * 调用成功，耗时参与并发上限增长的判断
+         */
+        public void success(long latencyMs) {
+            if (released.compareAndSet(false, true)) {
+                onSuccess(latencyMs);
+            }
+        }
+
+        /**
+         * 调用被限流或超时，缩减并发上限
+         */
+        public void dropped() {
+            if (released.compareAndSet(false, true)) {
+                onDropped(acquiredAt);
+            }
+        }
+
+        /**
+         * 调用被取消或因其他原因失败，只归还许可
+         */
+        public void ignore() {
+            if (released.compareAndSet(false, true)) {
+                onIgnore();
+            }
+        }
+    }
+}
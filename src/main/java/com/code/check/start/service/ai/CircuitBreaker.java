@@ -0,0 +1,170 @@
+package com.code.check.start.service.ai;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/18 17:10
+ * @desc 大模型调用熔断器：最近N次调用失败率超过阈值时熔断，熔断期间直接拒绝调用；
+ * 熔断时间结束后进入半开状态放行少量探测请求，探测全部成功则恢复，任一失败则重新熔断
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int windowSize;
+    private final int minCalls;
+    private final double failureRateThreshold;
+    private final long openMillis;
+    private final int halfOpenProbes;
+
+    /**
+     * 最近调用结果的滑动窗口，true表示失败
+     */
+    private final boolean[] outcomes;
+    private int next;
+    private int count;
+    private int failures;
+
+    private State state = State.CLOSED;
+    private long openUntil;
+    private int probesInFlight;
+    private int probeSuccesses;
+
+    private long opened;
+    private long rejected;
+
+    /**
+     * @param windowSize           统计失败率的最近调用次数
+     * @param minCalls             窗口内调用次数达到该值后才计算失败率
+     * @param failureRateThreshold 触发熔断的失败率（0~1）
+     * @param openMillis           熔断持续时间（毫秒）
+     * @param halfOpenProbes       半开状态放行的探测请求数
+     */
+    public CircuitBreaker(int windowSize, int minCalls, double failureRateThreshold, long openMillis, int halfOpenProbes) {
+        this.windowSize = Math.max(1, windowSize);
+        this.minCalls = Math.max(1, Math.min(minCalls, this.windowSize));
+        this.failureRateThreshold = failureRateThreshold;
+        this.openMillis = openMillis;
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+        this.outcomes = new boolean[this.windowSize];
+    }
+
+    /**
+     * 是否放行本次调用；放行后必须调用onSuccess或onFailure
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() < openUntil) {
+                rejected++;
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probesInFlight = 0;
+            probeSuccesses = 0;
+            log.info("Circuit breaker half open, probing model");
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight + probeSuccesses >= halfOpenProbes) {
+                rejected++;
+                return false;
+            }
+            probesInFlight++;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            probesInFlight--;
+            probeSuccesses++;
+            if (probeSuccesses >= halfOpenProbes) {
+                state = State.CLOSED;
+                resetWindow();
+                log.info("Circuit breaker closed after {} successful probes", probeSuccesses);
+            }
+            return;
+        }
+        record(false);
+    }
+
+    /**
+     * 放行的请求没有得到大模型的结果（本地拥塞或调用方取消），不计入统计，只归还半开探测名额
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN && probesInFlight > 0) {
+            probesInFlight--;
+        }
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        if (state == State.OPEN) {
+            return;
+        }
+        record(true);
+        if (count >= minCalls && failures >= failureRateThreshold * count) {
+            open();
+        }
+    }
+
+    /**
+     * 当前是否处于正常状态（不消耗半开探测名额）
+     */
+    public synchronized boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", state);
+        stats.put("windowCalls", count);
+        stats.put("windowFailures", failures);
+        stats.put("opened", opened);
+        stats.put("rejected", rejected);
+        if (state == State.OPEN) {
+            stats.put("openRemainingMs", Math.max(0, openUntil - System.currentTimeMillis()));
+        }
+        return stats;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = System.currentTimeMillis() + openMillis;
+        probesInFlight = 0;
+        probeSuccesses = 0;
+        opened++;
+        log.warn("Circuit breaker opened for {}ms, window failures {}/{}", openMillis, failures, count);
+        resetWindow();
+    }
+
+    private void record(boolean failure) {
+        if (count == windowSize) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            count++;
+        }
+        outcomes[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % windowSize;
+    }
+
+    private void resetWindow() {
+        next = 0;
+        count = 0;
+        failures = 0;
+    }
+}
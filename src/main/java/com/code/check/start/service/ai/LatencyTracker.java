@@ -0,0 +1,46 @@
+package com.code.check.start.service.ai;
+
+import java.util.Arrays;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/18 14:05
+ * @desc 最近N次调用耗时的滑动窗口，用于计算分位数
+ */
+public class LatencyTracker {
+
+    private final long[] samples;
+    private int next;
+    private int count;
+
+    public LatencyTracker(int windowSize) {
+        this.samples = new long[windowSize];
+    }
+
+    public synchronized void record(long latencyMs) {
+        samples[next] = latencyMs;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * 计算分位数耗时，没有样本时返回-1
+     *
+     * @param percentile 0~1之间，如0.95
+     */
+    public synchronized long percentile(double percentile) {
+        if (count == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+}
@@ -0,0 +1,13 @@
+package com.code.check.start.service.ai;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/22 10:10
+ * @desc 调用线程被中断（检测任务被取消或被新提交替代），不代表大模型异常，不计入熔断统计
+ */
+public class ModelCallInterruptedException extends ModelCallTimeoutException {
+
+    public ModelCallInterruptedException(String message) {
+        super(message);
+    }
+}
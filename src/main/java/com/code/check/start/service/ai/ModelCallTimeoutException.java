@@ -0,0 +1,13 @@
+package com.code.check.start.service.ai;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/18 14:02
+ * @desc 大模型调用超过截止时间
+ */
+public class ModelCallTimeoutException extends RuntimeException {
+
+    public ModelCallTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,23 @@
+package com.code.check.start.service.ai;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/18 17:15
+ * @desc 大模型返回内容及实际应答的模型
+ */
+@Getter
+@AllArgsConstructor
+public class ModelReply {
+
+    private final String content;
+
+    private final String model;
+
+    /**
+     * 是否由备用模型生成（主模型熔断或调用失败时）
+     */
+    private final boolean fallback;
+}
@@ -0,0 +1,13 @@
+package com.code.check.start.service.ai;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/18 17:12
+ * @desc 大模型熔断中且没有可用的备用模型
+ */
+public class ModelUnavailableException extends RuntimeException {
+
+    public ModelUnavailableException(String message) {
+        super(message);
+    }
+}
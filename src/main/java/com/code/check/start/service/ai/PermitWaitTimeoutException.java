@@ -0,0 +1,13 @@
+package com.code.check.start.service.ai;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/22 10:10
+ * @desc 本地等待并发许可超时（本服务拥塞），请求未发到大模型，不计入熔断统计
+ */
+public class PermitWaitTimeoutException extends ModelCallTimeoutException {
+
+    public PermitWaitTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,377 @@
+package com.code.check.start.service.ai;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/18 14:10
+ * @desc 代码审查大模型调用入口：按截止时间等待结果，超时取消进行中的请求；
+ * 可选对冲请求，超过历史P95耗时仍未返回时再发一次相同请求，取先返回的结果；
+ * 每个请求都需先从自适应并发限制器获取许可；主模型失败率过高时熔断，熔断期间快速失败或改用备用模型
+ */
+@Component
+@Slf4j
+public class ReviewModelClient {
+
+    @Autowired
+    private ChatClient gitlabChatClient;
+
+    @Autowired(required = false)
+    @Qualifier("fallbackChatClient")
+    private ChatClient fallbackChatClient;
+
+    @Autowired
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    @Value("${spring.ai.dashscope.chat.options.model}")
+    private String modelName;
+
+    @Value("${app.code-inspect.fallback.model:qwen-turbo}")
+    private String fallbackModelName;
+
+    /**
+     * 统计失败率的最近调用次数
+     */
+    @Value("${app.code-inspect.circuit-breaker.window-size:20}")
+    private int breakerWindowSize;
+
+    /**
+     * 窗口内调用次数达到该值后才判断是否熔断
+     */
+    @Value("${app.code-inspect.circuit-breaker.min-calls:10}")
+    private int breakerMinCalls;
+
+    @Value("${app.code-inspect.circuit-breaker.failure-rate:0.5}")
+    private double breakerFailureRate;
+
+    /**
+     * 熔断持续时间（单位：秒），之后进入半开状态放行探测请求
+     */
+    @Value("${app.code-inspect.circuit-breaker.open-seconds:30}")
+    private int breakerOpenSeconds;
+
+    @Value("${app.code-inspect.circuit-breaker.half-open-probes:2}")
+    private int breakerHalfOpenProbes;
+
+    private CircuitBreaker circuitBreaker;
+
+    @Value("${app.code-inspect.hedge.enabled:false}")
+    private boolean hedgeEnabled;
+
+    /**
+     * 触发对冲所用的耗时分位数
+     */
+    @Value("${app.code-inspect.hedge.percentile:0.95}")
+    private double hedgePercentile;
+
+    /**
+     * 耗时样本数达到该值后才启用对冲
+     */
+    @Value("${app.code-inspect.hedge.min-samples:20}")
+    private int hedgeMinSamples;
+
+    private final LatencyTracker latencyTracker = new LatencyTracker(200);
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong hedgedCalls = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong fallbackCalls = new AtomicLong();
+
+    private ExecutorService callExecutor;
+
+    private final AtomicInteger threadIndex = new AtomicInteger();
+
+    @PostConstruct
+    public void init() {
+        circuitBreaker = new CircuitBreaker(breakerWindowSize, breakerMinCalls, breakerFailureRate,
+                TimeUnit.SECONDS.toMillis(breakerOpenSeconds), breakerHalfOpenProbes);
+        callExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "ai-call-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        callExecutor.shutdownNow();
+    }
+
+    /**
+     * 同步调用大模型，超过截止时间抛出ModelCallTimeoutException并取消请求；
+     * 主模型熔断或调用失败时，若配置了备用模型则改用备用模型，否则抛出异常。
+     * 本地等待许可超时和线程中断不计入熔断统计，中断时直接抛出，不再调用备用模型
+     *
+     * @param promptText 用户提示词
+     * @param deadlineAt 截止时间戳（毫秒）
+     */
+    public ModelReply call(String promptText, long deadlineAt) {
+        calls.incrementAndGet();
+        if (circuitBreaker.allowRequest()) {
+            try {
+                String content = callWithDeadline(gitlabChatClient, promptText, deadlineAt, true);
+                circuitBreaker.onSuccess();
+                return new ModelReply(content, modelName, false);
+            } catch (ModelCallInterruptedException | PermitWaitTimeoutException e) {
+                circuitBreaker.onIgnored();
+                throw e;
+            } catch (RuntimeException e) {
+                circuitBreaker.onFailure();
+                if (fallbackChatClient == null || remainingMillis(deadlineAt) <= 0) {
+                    throw e;
+                }
+                log.warn("Primary model call failed: {}, retrying with fallback model {}", e.getMessage(), fallbackModelName);
+            }
+        } else if (fallbackChatClient == null) {
+            throw new ModelUnavailableException("大模型服务熔断中，暂停调用");
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new ModelCallInterruptedException("大模型调用被中断");
+        }
+        fallbackCalls.incrementAndGet();
+        return new ModelReply(callWithDeadline(fallbackChatClient, promptText, deadlineAt, false), fallbackModelName, true);
+    }
+
+    /**
+     * 主模型是否处于正常状态，流式调用只在正常状态下使用
+     */
+    public boolean isPrimaryAvailable() {
+        return circuitBreaker.isClosed();
+    }
+
+    private String callWithDeadline(ChatClient chatClient, String promptText, long deadlineAt, boolean primaryModel) {
+        List<ModelCall> inFlight = new ArrayList<>(2);
+        boolean timedOut = false;
+        try {
+            ModelCall primary = submit(chatClient, promptText, concurrencyLimiter.acquire(deadlineAt), primaryModel);
+            inFlight.add(primary);
+
+            long hedgeDelay = primaryModel ? hedgeDelayMillis() : -1;
+            if (hedgeDelay >= 0 && hedgeDelay < remainingMillis(deadlineAt)) {
+                try {
+                    return primary.result.get(hedgeDelay, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // 没有空闲许可时不再对冲，避免在拥塞时进一步加压
+                    AdaptiveConcurrencyLimiter.Permit hedgePermit = concurrencyLimiter.tryAcquire();
+                    if (hedgePermit != null) {
+                        log.info("Model call exceeded p{} latency {}ms, sending hedged request",
+                                Math.round(hedgePercentile * 100), hedgeDelay);
+                        hedgedCalls.incrementAndGet();
+                        inFlight.add(submit(chatClient, promptText, hedgePermit, true));
+                    }
+                }
+            }
+
+            ModelCall winner = awaitFirstSuccess(inFlight, deadlineAt);
+            if (winner != primary) {
+                hedgeWins.incrementAndGet();
+            }
+            return winner.result.getNow(null);
+        } catch (ModelCallInterruptedException e) {
+            throw e;
+        } catch (ModelCallTimeoutException e) {
+            timeouts.incrementAndGet();
+            throw e;
+        } catch (TimeoutException e) {
+            timeouts.incrementAndGet();
+            timedOut = true;
+            throw new ModelCallTimeoutException("大模型调用超时");
+        } catch (ExecutionException e) {
+            failures.incrementAndGet();
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ModelCallInterruptedException("大模型调用被中断");
+        } finally {
+            // 取消未完成的请求（包括对冲中落败的一方），超时的请求视为过载信号
+            for (ModelCall call : inFlight) {
+                if (timedOut) {
+                    call.permit.dropped();
+                } else {
+                    call.permit.ignore();
+                }
+                call.task.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 流式调用大模型，由调用方控制取消；调用方提前取消时，已收到输出视为成功
+     */
+    public Flux<String> stream(String promptText, long deadlineAt) {
+        calls.incrementAndGet();
+        return Flux.defer(() -> {
+            AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimiter.acquire(deadlineAt);
+            if (!circuitBreaker.allowRequest()) {
+                permit.ignore();
+                return Flux.error(new ModelUnavailableException("大模型服务熔断中，暂停调用"));
+            }
+            long startTime = System.currentTimeMillis();
+            AtomicBoolean received = new AtomicBoolean();
+            return gitlabChatClient.prompt().user(promptText).stream().content()
+                    .doOnNext(chunk -> received.set(true))
+                    .doOnComplete(() -> {
+                        circuitBreaker.onSuccess();
+                        permit.success(System.currentTimeMillis() - startTime);
+                    })
+                    .doOnError(e -> {
+                        failures.incrementAndGet();
+                        circuitBreaker.onFailure();
+                        releaseOnFailure(permit, e);
+                    })
+                    .doOnCancel(() -> {
+                        if (received.get()) {
+                            circuitBreaker.onSuccess();
+                        } else {
+                            circuitBreaker.onFailure();
+                        }
+                    })
+                    .doFinally(signal -> permit.ignore());
+        });
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("calls", calls.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("failures", failures.get());
+        stats.put("hedgeEnabled", hedgeEnabled);
+        stats.put("hedgedCalls", hedgedCalls.get());
+        stats.put("hedgeWins", hedgeWins.get());
+        stats.put("latencySamples", latencyTracker.size());
+        stats.put("p50Ms", latencyTracker.percentile(0.5));
+        stats.put("p95Ms", latencyTracker.percentile(0.95));
+        stats.put("fallbackEnabled", fallbackChatClient != null);
+        stats.put("fallbackCalls", fallbackCalls.get());
+        stats.put("circuitBreaker", circuitBreaker.stats());
+        stats.put("concurrency", concurrencyLimiter.stats());
+        return stats;
+    }
+
+    private ModelCall submit(ChatClient chatClient, String promptText, AdaptiveConcurrencyLimiter.Permit permit,
+                             boolean recordLatency) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        Future<?> task;
+        try {
+            task = callExecutor.submit(() -> {
+                long startTime = System.currentTimeMillis();
+                try {
+                    String content = chatClient.prompt().user(promptText).call().content();
+                    long latency = System.currentTimeMillis() - startTime;
+                    if (recordLatency) {
+                        latencyTracker.record(latency);
+                    }
+                    permit.success(latency);
+                    result.complete(content);
+                } catch (Throwable e) {
+                    releaseOnFailure(permit, e);
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            permit.ignore();
+            throw e;
+        }
+        return new ModelCall(result, task, permit);
+    }
+
+    /**
+     * 限流类错误缩减并发上限，其余错误只归还许可
+     */
+    private static void releaseOnFailure(AdaptiveConcurrencyLimiter.Permit permit, Throwable e) {
+        if (isThrottled(e)) {
+            permit.dropped();
+        } else {
+            permit.ignore();
+        }
+    }
+
+    /**
+     * 判断是否为服务端限流（HTTP 429 或 DashScope 的 Throttling 错误码）
+     */
+    static boolean isThrottled(Throwable e) {
+        for (Throwable current = e; current != null; current = current.getCause()) {
+            String message = current.getMessage();
+            if (message != null && (message.contains("429") || message.contains("Throttling")
+                    || message.toLowerCase().contains("too many requests"))) {
+                return true;
+            }
+            if (current.getCause() == current) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 等待第一个成功的请求；全部失败时抛出最后一个异常
+     */
+    private static ModelCall awaitFirstSuccess(List<ModelCall> calls, long deadlineAt)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        CompletableFuture<ModelCall> firstSuccess = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        for (ModelCall call : calls) {
+            call.result.whenComplete((content, e) -> {
+                if (e == null) {
+                    firstSuccess.complete(call);
+                } else if (failed.incrementAndGet() == calls.size()) {
+                    firstSuccess.completeExceptionally(e);
+                }
+            });
+        }
+        long remaining = remainingMillis(deadlineAt);
+        if (remaining <= 0 && !firstSuccess.isDone()) {
+            throw new TimeoutException();
+        }
+        return firstSuccess.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+    }
+
+    private long hedgeDelayMillis() {
+        if (!hedgeEnabled || latencyTracker.size() < hedgeMinSamples) {
+            return -1;
+        }
+        return latencyTracker.percentile(hedgePercentile);
+    }
+
+    private static long remainingMillis(long deadlineAt) {
+        return deadlineAt - System.currentTimeMillis();
+    }
+
+    private static class ModelCall {
+        final CompletableFuture<String> result;
+        final Future<?> task;
+        final AdaptiveConcurrencyLimiter.Permit permit;
+
+        ModelCall(CompletableFuture<String> result, Future<?> task, AdaptiveConcurrencyLimiter.Permit permit) {
+            this.result = result;
+            this.task = task;
+            this.permit = permit;
+        }
+    }
+}
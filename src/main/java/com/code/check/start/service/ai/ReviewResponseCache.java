@@ -0,0 +1,129 @@
+package com.code.check.start.service.ai;
+
+import com.code.check.start.utils.HashUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/17 14:10
+ * @desc 大模型审查结果内存缓存，按(模型, 系统提示词, 用户提示词)的摘要寻址，相同的diff不再重复调用模型
+ */
+@Component
+public class ReviewResponseCache {
+
+    @Value("${app.code-inspect.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.code-inspect.cache.max-entries:2000}")
+    private int maxEntries;
+
+    @Value("${app.code-inspect.cache.ttl-minutes:1440}")
+    private long ttlMinutes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * accessOrder=true，迭代顺序即最近最少使用顺序
+     */
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    /**
+     * 生成缓存键
+     */
+    public static String key(String model, String systemPrompt, String userPrompt) {
+        return HashUtil.sha256Hex(model, systemPrompt, userPrompt);
+    }
+
+    /**
+     * 获取未过期的缓存结果，不存在时返回null
+     */
+    public String get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (entries) {
+            CacheEntry entry = entries.get(key);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            if (entry.expireAt < System.currentTimeMillis()) {
+                entries.remove(key);
+                evictions.incrementAndGet();
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.value;
+        }
+    }
+
+    public void put(String key, String value) {
+        if (!enabled || value == null) {
+            return;
+        }
+        long expireAt = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(ttlMinutes);
+        synchronized (entries) {
+            entries.put(key, new CacheEntry(value, expireAt));
+            evictIfNecessary();
+        }
+    }
+
+    /**
+     * 先清理过期项，仍超出容量时淘汰最近最少使用的项
+     */
+    private void evictIfNecessary() {
+        if (entries.size() <= maxEntries) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Iterator<CacheEntry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expireAt < now) {
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+        iterator = entries.values().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        stats.put("enabled", enabled);
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxEntries", maxEntries);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("evictions", evictions.get());
+        stats.put("hitRate", hitCount + missCount == 0 ? 0D : (double) hitCount / (hitCount + missCount));
+        return stats;
+    }
+
+    private static class CacheEntry {
+        final String value;
+        final long expireAt;
+
+        CacheEntry(String value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+}
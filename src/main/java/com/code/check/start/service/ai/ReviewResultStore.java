@@ -0,0 +1,285 @@
+package com.code.check.start.service.ai;
+
+import com.alibaba.fastjson.JSON;
+import com.code.check.start.model.FileInspectionResult;
+import com.code.check.start.utils.HashUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/17 15:20
+ * @desc 审查结果本地持久化存储，按(模型, diff内容摘要)寻址，重启后仍可直接复用历史审查结果。
+ * 数据文件为追加写的日志，每行一条记录：key + '\t' + FileInspectionResult的JSON，内存中只保留key到文件位置的索引。
+ * 读写使用RandomAccessFile而不是FileChannel：调用线程会被取消任务中断，FileChannel在中断时会被关闭且无法恢复
+ */
+@Component
+@Slf4j
+public class ReviewResultStore {
+
+    private static final long MIN_COMPACT_BYTES = 1024 * 1024;
+
+    @Value("${app.code-inspect.store.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.code-inspect.store.path:./data/review-store.log}")
+    private String storePath;
+
+    /**
+     * 有效数据的容量上限（单位：MB），超出后淘汰最近最少使用的记录
+     */
+    @Value("${app.code-inspect.store.max-size-mb:256}")
+    private long maxSizeMb;
+
+    /**
+     * 索引：key -> {文件偏移, 记录长度}，accessOrder=true 用于LRU淘汰
+     */
+    private final LinkedHashMap<String, long[]> index = new LinkedHashMap<>(1024, 0.75f, true);
+
+    private Path path;
+    private RandomAccessFile file;
+    private long liveBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long compactions;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        path = Paths.get(storePath).toAbsolutePath();
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        file = openFile(path);
+        synchronized (this) {
+            load();
+            evictIfNecessary();
+            compactIfNecessary();
+        }
+        log.info("Review result store loaded {} entries from {}", index.size(), path);
+    }
+
+    /**
+     * 生成存储键：模型、系统提示词与文件diff内容摘要共同决定审查结果
+     */
+    public static String key(String model, String systemPrompt, String contentHash) {
+        return HashUtil.sha256Hex(model, systemPrompt, contentHash);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 读取历史审查结果，不存在时返回null
+     */
+    public synchronized FileInspectionResult get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        long[] location = index.get(key);
+        if (location == null) {
+            misses++;
+            return null;
+        }
+        String record;
+        try {
+            record = readRecord(location[0], (int) location[1]);
+        } catch (IOException e) {
+            // 文件读取失败不代表记录损坏，保留索引
+            log.warn("Failed to read review store record {}", key, e);
+            misses++;
+            return null;
+        }
+        try {
+            int tab = record.indexOf('\t');
+            if (tab < 0 || !key.equals(record.substring(0, tab))) {
+                throw new IllegalStateException("record key mismatch");
+            }
+            FileInspectionResult result = JSON.parseObject(record.substring(tab + 1), FileInspectionResult.class);
+            hits++;
+            return result;
+        } catch (Exception e) {
+            log.warn("Corrupted review store record {}, dropping it", key, e);
+            remove(key);
+            misses++;
+            return null;
+        }
+    }
+
+    public synchronized void put(String key, FileInspectionResult result) {
+        if (!enabled || result == null) {
+            return;
+        }
+        byte[] bytes = (key + "\t" + JSON.toJSONString(result) + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            long offset = file.length();
+            file.seek(offset);
+            file.write(bytes);
+            putIndex(key, offset, bytes.length);
+            evictIfNecessary();
+            compactIfNecessary();
+        } catch (IOException e) {
+            log.error("Failed to write review store record {}", key, e);
+        }
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("entries", index.size());
+        stats.put("liveBytes", liveBytes);
+        stats.put("maxBytes", maxBytes());
+        try {
+            stats.put("fileBytes", file == null ? 0L : file.length());
+        } catch (IOException e) {
+            stats.put("fileBytes", -1L);
+        }
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("compactions", compactions);
+        return stats;
+    }
+
+    /**
+     * 顺序扫描数据文件重建索引，只解析每行的key；末尾不完整的记录（写入时进程退出）会被截掉
+     */
+    private void load() throws IOException {
+        long recordStart = 0;
+        long position = 0;
+        StringBuilder key = new StringBuilder(64);
+        boolean inKey = true;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path), 64 * 1024)) {
+            int b;
+            while ((b = in.read()) != -1) {
+                position++;
+                if (b == '\n') {
+                    if (!inKey && key.length() > 0) {
+                        putIndex(key.toString(), recordStart, position - recordStart);
+                    }
+                    key.setLength(0);
+                    inKey = true;
+                    recordStart = position;
+                } else if (inKey) {
+                    if (b == '\t') {
+                        inKey = false;
+                    } else {
+                        key.append((char) b);
+                    }
+                }
+            }
+        }
+        if (recordStart < file.length()) {
+            log.warn("Truncating incomplete tail of review store {} at {}", path, recordStart);
+            file.setLength(recordStart);
+        }
+    }
+
+    private void putIndex(String key, long offset, long length) {
+        long[] previous = index.put(key, new long[]{offset, length});
+        if (previous != null) {
+            liveBytes -= previous[1];
+        }
+        liveBytes += length;
+    }
+
+    private void remove(String key) {
+        long[] previous = index.remove(key);
+        if (previous != null) {
+            liveBytes -= previous[1];
+        }
+    }
+
+    private void evictIfNecessary() {
+        Iterator<Map.Entry<String, long[]>> iterator = index.entrySet().iterator();
+        while (liveBytes > maxBytes() && iterator.hasNext()) {
+            liveBytes -= iterator.next().getValue()[1];
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * 失效数据超过有效数据时压缩：按LRU顺序把有效记录写入新文件后原子替换；
+     * 替换失败时重新打开原文件，继续使用原索引
+     */
+    private void compactIfNecessary() throws IOException {
+        long fileBytes = file.length();
+        if (fileBytes < MIN_COMPACT_BYTES || fileBytes <= liveBytes * 2) {
+            return;
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+        LinkedHashMap<String, long[]> newIndex = new LinkedHashMap<>(Math.max(16, index.size() * 2), 0.75f, true);
+        try (FileOutputStream out = new FileOutputStream(tmp.toFile());
+             OutputStream target = new BufferedOutputStream(out, 64 * 1024)) {
+            long offset = 0;
+            for (Map.Entry<String, long[]> entry : index.entrySet()) {
+                long[] location = entry.getValue();
+                byte[] record = new byte[(int) location[1]];
+                file.seek(location[0]);
+                file.readFully(record);
+                target.write(record);
+                newIndex.put(entry.getKey(), new long[]{offset, location[1]});
+                offset += location[1];
+            }
+            target.flush();
+            out.getFD().sync();
+        }
+        file.close();
+        try {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            file = openFile(path);
+        }
+        index.clear();
+        index.putAll(newIndex);
+        compactions++;
+        log.info("Compacted review store {} from {} to {} bytes", path, fileBytes, file.length());
+    }
+
+    private String readRecord(long offset, int length) throws IOException {
+        byte[] record = new byte[length];
+        file.seek(offset);
+        file.readFully(record);
+        return new String(record, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private long maxBytes() {
+        return maxSizeMb * 1024 * 1024;
+    }
+
+    private static RandomAccessFile openFile(Path path) throws IOException {
+        return new RandomAccessFile(path.toFile(), "rw");
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.code.check.start.service.ai;
+
+import java.util.function.Consumer;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/18 10:05
+ * @desc 大模型流式输出的增量JSON解析器：逐段喂入文本，issues数组中每个问题对象一旦完整即回调输出，
+ * 不保留完整响应文本，只保留顶层字段（hasIssues、fileEvaluation等）和当前正在接收的问题对象
+ */
+public class StreamingIssueParser {
+
+    private static final String ISSUES_KEY = "issues";
+
+    private final int maxIssues;
+    private final long maxChars;
+    private final Consumer<String> issueConsumer;
+
+    /**
+     * 顶层对象文本，issues数组内容不保留（只保留"[]"）
+     */
+    private final StringBuilder topLevel = new StringBuilder();
+    private final StringBuilder currentIssue = new StringBuilder();
+    private final StringBuilder topLevelString = new StringBuilder();
+
+    private String lastTopLevelString;
+    private String currentKey;
+
+    private int depth;
+    private boolean started;
+    private boolean completed;
+    private boolean truncated;
+    private boolean inString;
+    private boolean escaped;
+    private boolean inIssues;
+
+    private long charsRead;
+    private int issueCount;
+
+    /**
+     * @param maxIssues     最多输出的问题数，达到后停止接收
+     * @param maxChars      最多接收的字符数，达到后停止接收
+     * @param issueConsumer 完整问题对象（JSON文本）的回调
+     */
+    public StreamingIssueParser(int maxIssues, long maxChars, Consumer<String> issueConsumer) {
+        this.maxIssues = maxIssues;
+        this.maxChars = maxChars;
+        this.issueConsumer = issueConsumer;
+    }
+
+    /**
+     * 喂入一段流式输出
+     *
+     * @return 是否需要继续接收（顶层对象已结束或达到限制时返回false）
+     */
+    public boolean feed(String chunk) {
+        if (chunk == null) {
+            return !completed && !truncated;
+        }
+        for (int i = 0; i < chunk.length() && !completed && !truncated; i++) {
+            accept(chunk.charAt(i));
+        }
+        charsRead += chunk.length();
+        if (!completed && charsRead >= maxChars) {
+            truncated = true;
+        }
+        return !completed && !truncated;
+    }
+
+    private void accept(char c) {
+        if (!started) {
+            // 跳过```json等前缀
+            if (c == '{') {
+                started = true;
+                depth = 1;
+                topLevel.append(c);
+            }
+            return;
+        }
+
+        if (inString) {
+            append(c);
+            if (escaped) {
+                escaped = false;
+            } else if (c == '\\') {
+                escaped = true;
+            } else if (c == '"') {
+                inString = false;
+                if (depth == 1) {
+                    lastTopLevelString = topLevelString.toString();
+                }
+                return;
+            }
+            if (depth == 1) {
+                topLevelString.append(c);
+            }
+            return;
+        }
+
+        switch (c) {
+            case '"':
+                inString = true;
+                if (depth == 1) {
+                    topLevelString.setLength(0);
+                }
+                append(c);
+                break;
+            case ':':
+                if (depth == 1) {
+                    currentKey = lastTopLevelString;
+                }
+                append(c);
+                break;
+            case ',':
+                if (depth == 1) {
+                    currentKey = null;
+                }
+                append(c);
+                break;
+            case '[':
+                if (depth == 1 && ISSUES_KEY.equals(currentKey)) {
+                    inIssues = true;
+                    depth++;
+                    topLevel.append(c);
+                    break;
+                }
+                depth++;
+                append(c);
+                break;
+            case '{':
+                depth++;
+                if (inIssues && depth == 3) {
+                    currentIssue.setLength(0);
+                }
+                append(c);
+                break;
+            case '}':
+            case ']':
+                closeBracket(c);
+                break;
+            default:
+                append(c);
+        }
+    }
+
+    private void closeBracket(char c) {
+        if (inIssues) {
+            if (depth == 2) {
+                // issues数组结束
+                inIssues = false;
+                depth--;
+                topLevel.append(c);
+                return;
+            }
+            currentIssue.append(c);
+            depth--;
+            if (depth == 2) {
+                emitIssue();
+            }
+            return;
+        }
+        depth--;
+        topLevel.append(c);
+        if (depth == 0) {
+            completed = true;
+        }
+    }
+
+    private void append(char c) {
+        if (inIssues) {
+            if (depth >= 3) {
+                currentIssue.append(c);
+            }
+        } else {
+            topLevel.append(c);
+        }
+    }
+
+    private void emitIssue() {
+        issueCount++;
+        issueConsumer.accept(currentIssue.toString());
+        currentIssue.setLength(0);
+        if (issueCount >= maxIssues) {
+            truncated = true;
+        }
+    }
+
+    /**
+     * 顶层对象的JSON文本（issues为空数组）；提前结束时尝试补全括号，字符串未结束则返回null
+     */
+    public String topLevelJson() {
+        if (!started) {
+            return null;
+        }
+        if (completed) {
+            return topLevel.toString();
+        }
+        if (inString && depth == 1) {
+            return null;
+        }
+        StringBuilder closed = new StringBuilder(topLevel);
+        if (inIssues) {
+            closed.append(']');
+        }
+        closed.append('}');
+        return closed.toString();
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * 是否因达到问题数/字符数限制而提前结束
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public int getIssueCount() {
+        return issueCount;
+    }
+
+    public long getCharsRead() {
+        return charsRead;
+    }
+}
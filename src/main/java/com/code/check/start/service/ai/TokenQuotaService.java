@@ -0,0 +1,361 @@
+package com.code.check.start.service.ai;
+
+import com.alibaba.fastjson.JSON;
+import com.code.check.start.utils.AppendOnlyJournal;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/19 21:15
+ * @desc 按项目统计大模型token和请求用量，支持按天、按月的额度限制。
+ * 用量以追加写日志持久化，重启后恢复当天、当月的计数；
+ * 额度用完后按配置降级：DEGRADE只检测高风险文件，DEFER把提交推迟到额度重置后再检测
+ */
+@Component
+@Slf4j
+public class TokenQuotaService {
+
+    public enum ExhaustedAction {
+        DEGRADE, DEFER
+    }
+
+    @Value("${app.code-inspect.quota.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 各项目默认额度，0表示不限制
+     */
+    @Value("${app.code-inspect.quota.daily-tokens:0}")
+    private long dailyTokens;
+
+    @Value("${app.code-inspect.quota.monthly-tokens:0}")
+    private long monthlyTokens;
+
+    @Value("${app.code-inspect.quota.daily-requests:0}")
+    private long dailyRequests;
+
+    @Value("${app.code-inspect.quota.monthly-requests:0}")
+    private long monthlyRequests;
+
+    /**
+     * 单独配置的项目token额度，格式为 项目ID:额度,项目ID:额度
+     */
+    @Value("${app.code-inspect.quota.project-daily-tokens:}")
+    private String projectDailyTokens;
+
+    @Value("${app.code-inspect.quota.project-monthly-tokens:}")
+    private String projectMonthlyTokens;
+
+    @Value("${app.code-inspect.quota.exhausted-action:DEGRADE}")
+    private ExhaustedAction exhaustedAction;
+
+    /**
+     * 降级时仍然检测的高风险文件：路径中包含任一关键字（不区分大小写）
+     */
+    @Value("${app.code-inspect.quota.high-risk-keywords:auth,security,permission,login,password,token,pay,sql,config}")
+    private String highRiskKeywords;
+
+    @Value("${app.code-inspect.quota.journal-path:./data/token-usage.journal}")
+    private String journalPath;
+
+    @Value("${app.code-inspect.quota.compact-threshold:1000}")
+    private int compactThreshold;
+
+    private final Map<Long, Long> dailyTokenOverrides = new HashMap<>();
+
+    private final Map<Long, Long> monthlyTokenOverrides = new HashMap<>();
+
+    private final List<String> keywords = new ArrayList<>();
+
+    /**
+     * 周期（yyyy-MM-dd或yyyy-MM）+ 项目ID -> 用量
+     */
+    private final Map<String, Usage> usage = new HashMap<>();
+
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    private AppendOnlyJournal journal;
+
+    private int appendedSinceCompact;
+
+    @PostConstruct
+    public void init() throws IOException {
+        parseOverrides(projectDailyTokens, dailyTokenOverrides);
+        parseOverrides(projectMonthlyTokens, monthlyTokenOverrides);
+        for (String keyword : highRiskKeywords.split(",")) {
+            if (!keyword.trim().isEmpty()) {
+                keywords.add(keyword.trim().toLowerCase());
+            }
+        }
+        if (!enabled) {
+            return;
+        }
+        journal = new AppendOnlyJournal(journalPath, false);
+        for (String line : journal.readAll()) {
+            try {
+                UsageRecord record = JSON.parseObject(line, UsageRecord.class);
+                apply(record);
+            } catch (Exception e) {
+                log.warn("Skip corrupted token usage record: {}", line);
+            }
+        }
+        synchronized (this) {
+            compact();
+        }
+    }
+
+    /**
+     * 记录一次大模型调用的用量
+     *
+     * @param tokens 提示词与输出的token数（估算值）
+     */
+    public synchronized void record(Long projectId, long tokens) {
+        if (!enabled || projectId == null) {
+            return;
+        }
+        LocalDate today = LocalDate.now(zone);
+        UsageRecord record = new UsageRecord(day(today), month(today), projectId, tokens, 1);
+        apply(record);
+        try {
+            journal.append(JSON.toJSONString(record));
+            if (++appendedSinceCompact >= compactThreshold) {
+                compact();
+            }
+        } catch (IOException e) {
+            log.error("Failed to write token usage journal", e);
+        }
+    }
+
+    /**
+     * 检查项目额度
+     */
+    public synchronized QuotaStatus check(Long projectId) {
+        if (!enabled || projectId == null) {
+            return QuotaStatus.AVAILABLE;
+        }
+        LocalDate today = LocalDate.now(zone);
+        Usage day = usageOf(day(today), projectId);
+        Usage month = usageOf(month(today), projectId);
+        long tomorrow = today.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        long nextMonth = today.withDayOfMonth(1).plusMonths(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        // 月额度用完时需要等到下月，优先判断
+        if (exceeded(month.tokens, monthlyTokenLimit(projectId))) {
+            return new QuotaStatus(true, "本月token额度已用完", nextMonth);
+        }
+        if (exceeded(month.requests, monthlyRequests)) {
+            return new QuotaStatus(true, "本月请求次数已用完", nextMonth);
+        }
+        if (exceeded(day.tokens, dailyTokenLimit(projectId))) {
+            return new QuotaStatus(true, "今日token额度已用完", tomorrow);
+        }
+        if (exceeded(day.requests, dailyRequests)) {
+            return new QuotaStatus(true, "今日请求次数已用完", tomorrow);
+        }
+        return QuotaStatus.AVAILABLE;
+    }
+
+    /**
+     * 额度已用完且配置为推迟时，返回额度重置时间，否则返回0
+     */
+    public long deferUntil(Long projectId) {
+        if (exhaustedAction != ExhaustedAction.DEFER) {
+            return 0L;
+        }
+        QuotaStatus status = check(projectId);
+        return status.isExhausted() ? status.getResetAt() : 0L;
+    }
+
+    /**
+     * 额度用完后是否仍需检测该文件
+     */
+    public boolean isHighRisk(String filePath) {
+        if (filePath == null) {
+            return false;
+        }
+        String path = filePath.toLowerCase();
+        for (String keyword : keywords) {
+            if (path.contains(keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 各项目当天、当月的用量与额度
+     */
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("exhaustedAction", exhaustedAction);
+        TreeSet<Long> projectIds = new TreeSet<>();
+        for (Usage value : usage.values()) {
+            projectIds.add(value.projectId);
+        }
+        Map<String, Object> projects = new LinkedHashMap<>();
+        for (Long projectId : projectIds) {
+            projects.put(String.valueOf(projectId), projectStats(projectId));
+        }
+        stats.put("projects", projects);
+        return stats;
+    }
+
+    public synchronized Map<String, Object> projectStats(Long projectId) {
+        LocalDate today = LocalDate.now(zone);
+        Usage day = usageOf(day(today), projectId);
+        Usage month = usageOf(month(today), projectId);
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("dailyTokens", day.tokens);
+        stats.put("dailyTokenLimit", dailyTokenLimit(projectId));
+        stats.put("dailyRequests", day.requests);
+        stats.put("dailyRequestLimit", dailyRequests);
+        stats.put("monthlyTokens", month.tokens);
+        stats.put("monthlyTokenLimit", monthlyTokenLimit(projectId));
+        stats.put("monthlyRequests", month.requests);
+        stats.put("monthlyRequestLimit", monthlyRequests);
+        QuotaStatus status = check(projectId);
+        stats.put("exhausted", status.isExhausted());
+        stats.put("reason", status.getReason());
+        return stats;
+    }
+
+    private void apply(UsageRecord record) {
+        if (record.getDay() != null) {
+            add(record.getDay(), record);
+        }
+        if (record.getMonth() != null) {
+            add(record.getMonth(), record);
+        }
+    }
+
+    private void add(String period, UsageRecord record) {
+        Usage value = usage.computeIfAbsent(period + ":" + record.getProjectId(), k -> new Usage(period, record.getProjectId()));
+        value.tokens += record.getTokens();
+        value.requests += record.getRequests();
+    }
+
+    private Usage usageOf(String period, Long projectId) {
+        Usage value = usage.get(period + ":" + projectId);
+        return value == null ? new Usage(period, projectId) : value;
+    }
+
+    /**
+     * 只保留当天、当月的用量，每个周期每个项目一条记录
+     */
+    private void compact() {
+        LocalDate today = LocalDate.now(zone);
+        String day = day(today);
+        String month = month(today);
+        usage.values().removeIf(value -> !value.period.equals(day) && !value.period.equals(month));
+        List<String> records = new ArrayList<>(usage.size());
+        for (Usage value : usage.values()) {
+            boolean daily = value.period.equals(day);
+            records.add(JSON.toJSONString(new UsageRecord(daily ? value.period : null, daily ? null : value.period,
+                    value.projectId, value.tokens, value.requests)));
+        }
+        try {
+            journal.rewrite(records);
+            appendedSinceCompact = 0;
+        } catch (IOException e) {
+            log.error("Failed to compact token usage journal", e);
+        }
+    }
+
+    private long dailyTokenLimit(Long projectId) {
+        return dailyTokenOverrides.getOrDefault(projectId, dailyTokens);
+    }
+
+    private long monthlyTokenLimit(Long projectId) {
+        return monthlyTokenOverrides.getOrDefault(projectId, monthlyTokens);
+    }
+
+    private static boolean exceeded(long used, long limit) {
+        return limit > 0 && used >= limit;
+    }
+
+    private static String day(LocalDate date) {
+        return date.toString();
+    }
+
+    private static String month(LocalDate date) {
+        return date.toString().substring(0, 7);
+    }
+
+    private static void parseOverrides(String value, Map<Long, Long> target) {
+        if (value == null || value.trim().isEmpty()) {
+            return;
+        }
+        for (String item : value.split(",")) {
+            String[] parts = item.trim().split(":");
+            try {
+                target.put(Long.parseLong(parts[0].trim()), Long.parseLong(parts[1].trim()));
+            } catch (RuntimeException e) {
+                log.warn("Skip invalid project quota: {}", item);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private static class Usage {
+        final String period;
+        final Long projectId;
+        long tokens;
+        long requests;
+
+        Usage(String period, Long projectId) {
+            this.period = period;
+            this.projectId = projectId;
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class QuotaStatus {
+
+        static final QuotaStatus AVAILABLE = new QuotaStatus(false, null, 0L);
+
+        private final boolean exhausted;
+
+        private final String reason;
+
+        /**
+         * 额度重置时间戳（毫秒）
+         */
+        private final long resetAt;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class UsageRecord {
+        private String day;
+        private String month;
+        private Long projectId;
+        private long tokens;
+        private long requests;
+    }
+}
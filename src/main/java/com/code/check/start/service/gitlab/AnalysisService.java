@@ -3,33 +3,160 @@ package com.code.check.start.service.gitlab;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
+import com.code.check.start.config.AIConfig;
 import com.code.check.start.model.CodeChange;
 import com.code.check.start.model.CodeIssue;
 import com.code.check.start.model.CodeSubmission;
 import com.code.check.start.model.FileInspectionResult;
+import com.code.check.start.service.ai.ModelCallTimeoutException;
+import com.code.check.start.service.ai.ModelReply;
+import com.code.check.start.service.ai.ModelUnavailableException;
+import com.code.check.start.service.ai.ReviewModelClient;
+import com.code.check.start.service.ai.ReviewResponseCache;
+import com.code.check.start.service.ai.ReviewResultStore;
+import com.code.check.start.service.ai.StreamingIssueParser;
+import com.code.check.start.service.ai.TokenQuotaService;
+import com.code.check.start.service.queue.ReviewJobRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
 
 @Service
 @Slf4j
 public class AnalysisService {
 
+    private static final String ISSUE_TYPE_SYSTEM_ERROR = "系统错误";
+
     @Autowired
-    private ChatClient gitlabChatClient;
+    private ReviewModelClient reviewModelClient;
 
     @Autowired
     private CodeProcessingService codeProcessingService;
 
+    @Autowired
+    private ReviewResponseCache reviewResponseCache;
+
+    @Autowired
+    private ReviewResultStore reviewResultStore;
+
+    @Autowired
+    private ReviewJobRegistry jobRegistry;
+
+    @Autowired
+    private TokenQuotaService tokenQuotaService;
+
+    @Value("${spring.ai.dashscope.chat.options.model}")
+    private String modelName;
+
+    /**
+     * 单次提交的检测截止时间（单位：秒），超时未完成的文件标记为检测超时
+     */
     @Value("${app.code-inspect.timeout-seconds}")
     private int timeoutSeconds;
 
+    /**
+     * 单个文件（或合并批次）调用大模型的超时时间（单位：秒）
+     */
+    @Value("${app.code-inspect.file-timeout-seconds:30}")
+    private int fileTimeoutSeconds;
+
+    /**
+     * 是否并发分析单次提交中的多个文件
+     */
+    @Value("${app.code-inspect.concurrency.enabled:true}")
+    private boolean concurrencyEnabled;
+
+    /**
+     * 单次提交同时分析的最大文件数
+     */
+    @Value("${app.code-inspect.concurrency.per-submission:4}")
+    private int perSubmissionConcurrency;
+
+    /**
+     * 是否将多个小文件合并为一次大模型请求
+     */
+    @Value("${app.code-inspect.packing.enabled:true}")
+    private boolean packingEnabled;
+
+    /**
+     * 单次合并请求的token预算（含固定指令部分）
+     */
+    @Value("${app.code-inspect.packing.token-budget:3000}")
+    private int packingTokenBudget;
+
+    /**
+     * 变更估算token数不超过该值的文件才参与合并
+     */
+    @Value("${app.code-inspect.packing.small-file-tokens:400}")
+    private int packingSmallFileTokens;
+
+    /**
+     * 单次合并请求的最大文件数
+     */
+    @Value("${app.code-inspect.packing.max-files:8}")
+    private int packingMaxFiles;
+
+    /**
+     * 是否流式调用大模型并增量解析结果
+     */
+    @Value("${app.code-inspect.streaming.enabled:false}")
+    private boolean streamingEnabled;
+
+    /**
+     * 流式模式下单个文件最多接收的问题数
+     */
+    @Value("${app.code-inspect.streaming.max-issues:20}")
+    private int streamingMaxIssues;
+
+    /**
+     * 流式模式下单个文件最多接收的字符数
+     */
+    @Value("${app.code-inspect.streaming.max-chars:20000}")
+    private long streamingMaxChars;
+
+    /**
+     * 流式模式下单个文件最长接收时间（单位：秒）
+     */
+    @Value("${app.code-inspect.streaming.max-seconds:60}")
+    private long streamingMaxSeconds;
+
+    private ExecutorService analysisExecutor;
+
+    private final AtomicInteger threadIndex = new AtomicInteger();
+
+    @PostConstruct
+    public void init() {
+        // 全局并发由AdaptiveConcurrencyLimiter按模型端负载动态控制，这里不再固定线程数
+        analysisExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "ai-analysis-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        analysisExecutor.shutdownNow();
+    }
+
     /**
      * 按文件分别分析代码提交
      */
@@ -43,31 +170,60 @@ public class AnalysisService {
                 log.info("No code changes to inspect in submission");
                 return Collections.emptyMap();
             }
+            AnalysisContext context = new AnalysisContext(submission, fileChanges,
+                    System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeoutSeconds),
+                    () -> jobRegistry.isCancelled(submission.getSubmissionId()));
 
-            // 2. 为每个文件单独分析
-            Map<String, FileInspectionResult> results = new ConcurrentHashMap<>();
+            // 2. 优先复用本地持久化的历史审查结果
+            Map<String, FileInspectionResult> resolved = new HashMap<>();
+            List<String> pendingFiles = new ArrayList<>();
             for (Map.Entry<String, CodeChange> entry : fileChanges.entrySet()) {
-                long startTime = System.currentTimeMillis();
-
-                String filePath = entry.getKey();
-                CodeChange fileChange = entry.getValue();
-
-                // 为单个文件生成提示
-                String promptText = codeProcessingService.generateFilePrompt2(fileChange, submission.getMessage());
-                log.info("Generated prompt for file: {} promptText:{}", filePath, promptText);
+                FileInspectionResult stored = loadStoredResult(entry.getKey(), entry.getValue());
+                if (stored != null) {
+                    resolved.put(entry.getKey(), stored);
+                } else {
+                    pendingFiles.add(entry.getKey());
+                }
+            }
 
-                // 调用AI分析单个文件
-                String analysisResult = callAiModel(promptText);
-                log.info("analysisResult:{}", analysisResult);
+            // 3. 项目额度用完时降级，只检测高风险文件
+            TokenQuotaService.QuotaStatus quota = tokenQuotaService.check(submission.getProjectId());
+            if (quota.isExhausted()) {
+                log.warn("Project {} quota exhausted: {}, only high risk files will be inspected",
+                        submission.getProjectName(), quota.getReason());
+                Iterator<String> iterator = pendingFiles.iterator();
+                while (iterator.hasNext()) {
+                    String filePath = iterator.next();
+                    if (!tokenQuotaService.isHighRisk(filePath)) {
+                        resolved.put(filePath, quotaExceededFileResult(filePath, quota.getReason()));
+                        iterator.remove();
+                    }
+                }
+            }
 
-                // 解析该文件的分析结果
-                FileInspectionResult fileInspectionResult = parseFileAnalysisResult(analysisResult, filePath, startTime);
+            // 4. 剩余文件按批次调用大模型：大文件单独一批，小文件按token预算合并为一批
+            List<List<String>> batches = planBatches(pendingFiles, fileChanges, submission.getMessage());
+            resolved.putAll(concurrencyEnabled && batches.size() > 1
+                    ? analyzeBatchesConcurrently(context, batches)
+                    : analyzeBatchesSequentially(context, batches));
 
-                results.put(filePath, fileInspectionResult);
+            // 5. 结果顺序与文件变更顺序一致
+            Map<String, FileInspectionResult> results = new LinkedHashMap<>();
+            for (Map.Entry<String, CodeChange> entry : fileChanges.entrySet()) {
+                FileInspectionResult result = resolved.get(entry.getKey());
+                if (result != null) {
+                    result.setRelatedCommits(entry.getValue().getRelatedCommits());
+                }
+                results.put(entry.getKey(), result);
             }
             log.info("代码检测结果 {}", JSON.toJSONString(results));
             return results;
 
+        } catch (InterruptedException e) {
+            // 任务被新提交取代或被手动取消，中断标记由ReviewJobRegistry.finish清除，监听器不会发送通知
+            Thread.currentThread().interrupt();
+            log.info("Review of commit {} was cancelled", submission.getCommitId());
+            return Collections.emptyMap();
         } catch (Exception e) {
             log.error("Error analyzing code submission", e);
             Map<String, FileInspectionResult> errorResult = new HashMap<>();
@@ -83,68 +239,515 @@ public class AnalysisService {
     }
 
     /**
-     * 调用AI模型分析单个文件
+     * 划分调用批次，超过小文件阈值的文件单独成批，其余按首次适应装入不超过token预算的批次
      */
-    private String callAiModel(String promptText) {
+    private List<List<String>> planBatches(List<String> filePaths, Map<String, CodeChange> fileChanges, String commitMessage) {
+        List<List<String>> batches = new ArrayList<>();
+        if (!packingEnabled) {
+            for (String filePath : filePaths) {
+                batches.add(Collections.singletonList(filePath));
+            }
+            return batches;
+        }
+
+        int promptOverhead = CodeProcessingService.estimateTokens(
+                codeProcessingService.generatePackedPrompt(Collections.emptyList(), commitMessage));
+        List<List<String>> packs = new ArrayList<>();
+        List<Integer> packTokens = new ArrayList<>();
+        for (String filePath : filePaths) {
+            int tokens = codeProcessingService.estimateChangeTokens(fileChanges.get(filePath));
+            if (tokens > packingSmallFileTokens) {
+                batches.add(Collections.singletonList(filePath));
+                continue;
+            }
+            boolean packed = false;
+            for (int i = 0; i < packs.size(); i++) {
+                if (packs.get(i).size() < packingMaxFiles && packTokens.get(i) + tokens <= packingTokenBudget) {
+                    packs.get(i).add(filePath);
+                    packTokens.set(i, packTokens.get(i) + tokens);
+                    packed = true;
+                    break;
+                }
+            }
+            if (!packed) {
+                packs.add(new ArrayList<>(Collections.singletonList(filePath)));
+                packTokens.add(promptOverhead + tokens);
+            }
+        }
+        batches.addAll(packs);
+        return batches;
+    }
+
+    private Map<String, FileInspectionResult> analyzeBatchesSequentially(AnalysisContext context, List<List<String>> batches) {
+        Map<String, FileInspectionResult> results = new HashMap<>();
+        for (List<String> batch : batches) {
+            if (context.isExpired()) {
+                putTimedOut(results, batch);
+            } else {
+                results.putAll(analyzeBatch(context, batch));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 并发分析：信号量限制单次提交占用的并发数，全局并发由自适应并发限制器控制；
+     * 超过提交截止时间仍未完成的批次会被取消并标记为超时
+     */
+    private Map<String, FileInspectionResult> analyzeBatchesConcurrently(AnalysisContext context, List<List<String>> batches)
+            throws InterruptedException {
+        Map<String, FileInspectionResult> results = new HashMap<>();
+        Semaphore submissionPermits = new Semaphore(perSubmissionConcurrency);
+        Map<List<String>, Future<Map<String, FileInspectionResult>>> futures = new LinkedHashMap<>();
+        for (List<String> batch : batches) {
+            if (!submissionPermits.tryAcquire(Math.max(context.remainingMillis(), 0), TimeUnit.MILLISECONDS)) {
+                putTimedOut(results, batch);
+                continue;
+            }
+            try {
+                futures.put(batch, analysisExecutor.submit(() -> {
+                    try {
+                        return analyzeBatch(context, batch);
+                    } finally {
+                        submissionPermits.release();
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                submissionPermits.release();
+                throw e;
+            }
+        }
+
+        try {
+            for (Map.Entry<List<String>, Future<Map<String, FileInspectionResult>>> entry : futures.entrySet()) {
+                Future<Map<String, FileInspectionResult>> future = entry.getValue();
+                try {
+                    results.putAll(future.get(Math.max(context.remainingMillis(), 0), TimeUnit.MILLISECONDS));
+                } catch (TimeoutException e) {
+                    future.cancel(true);
+                    putTimedOut(results, entry.getKey());
+                } catch (ExecutionException e) {
+                    for (String filePath : entry.getKey()) {
+                        results.put(filePath, failedFileResult(filePath, e.getCause()));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // 任务被新提交取代或被手动取消，取消尚未完成的大模型调用
+            for (Future<Map<String, FileInspectionResult>> future : futures.values()) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    private Map<String, FileInspectionResult> analyzeBatch(AnalysisContext context, List<String> batch) {
+        Map<String, FileInspectionResult> result = new HashMap<>();
+        if (batch.size() == 1) {
+            result.put(batch.get(0), analyzeFileSafely(context, batch.get(0)));
+            return result;
+        }
+        // 前面的批次可能已用完额度，剩余的非高风险文件降级
+        List<String> files = new ArrayList<>(batch.size());
+        for (String filePath : batch) {
+            FileInspectionResult degraded = quotaDegradedResult(context, filePath);
+            if (degraded != null) {
+                result.put(filePath, degraded);
+            } else {
+                files.add(filePath);
+            }
+        }
+        if (files.size() == 1) {
+            result.put(files.get(0), analyzeFileSafely(context, files.get(0)));
+        } else if (!files.isEmpty()) {
+            result.putAll(analyzePackedFiles(context, files));
+        }
+        return result;
+    }
+
+    /**
+     * 每次调用大模型前重新检查额度：额度在本次提交检测过程中用完时，非高风险文件不再调用，返回降级结果
+     */
+    private FileInspectionResult quotaDegradedResult(AnalysisContext context, String filePath) {
+        if (tokenQuotaService.isHighRisk(filePath)) {
+            return null;
+        }
+        TokenQuotaService.QuotaStatus quota = tokenQuotaService.check(context.submission.getProjectId());
+        if (!quota.isExhausted()) {
+            return null;
+        }
+        log.warn("Project {} quota exhausted during review: {}, skip file {}",
+                context.submission.getProjectName(), quota.getReason(), filePath);
+        return quotaExceededFileResult(filePath, quota.getReason());
+    }
+
+    /**
+     * 分析单个文件，异常或超时只影响该文件的结果
+     */
+    private FileInspectionResult analyzeFileSafely(AnalysisContext context, String filePath) {
+        if (context.isExpired()) {
+            return timedOutFileResult(filePath);
+        }
+        FileInspectionResult degraded = quotaDegradedResult(context, filePath);
+        if (degraded != null) {
+            return degraded;
+        }
+        try {
+            return analyzeFile(context, filePath);
+        } catch (ModelCallTimeoutException e) {
+            log.warn("Analyzing file {} timed out", filePath);
+            return timedOutFileResult(filePath);
+        } catch (Exception e) {
+            log.error("Error analyzing file {}", filePath, e);
+            return failedFileResult(filePath, e);
+        }
+    }
+
+    private FileInspectionResult analyzeFile(AnalysisContext context, String filePath) {
+        long startTime = System.currentTimeMillis();
+        CodeChange fileChange = context.fileChanges.get(filePath);
+
+        // 为单个文件生成提示
+        String promptText = codeProcessingService.generateFilePrompt2(fileChange, context.submission.getMessage());
+        log.info("Generated prompt for file: {} promptText:{}", filePath, promptText);
+
+        // 主模型熔断期间不走流式，改为同步调用以便使用备用模型或快速失败
+        if (streamingEnabled && reviewModelClient.isPrimaryAvailable()) {
+            return streamAnalyzeFile(context, filePath, promptText, startTime);
+        }
+
+        // 调用AI分析单个文件
+        ModelReply reply = callAiModel(context.submission.getProjectId(), promptText, fileDeadline(context));
+        log.info("analysisResult:{}", reply.getContent());
+
+        // 解析该文件的分析结果
+        FileInspectionResult result = parseFileAnalysisResult(reply.getContent(), filePath, startTime);
+        if (!hasSystemError(result)) {
+            cacheReply(promptText, reply);
+        }
+        completeResult(fileChange, result, reply);
+        return result;
+    }
+
+    /**
+     * 流式调用大模型：边接收边解析issues数组，每个问题完整后立即输出，达到问题数、字符数或时长限制时提前结束
+     */
+    private FileInspectionResult streamAnalyzeFile(AnalysisContext context, String filePath, String promptText, long startTime) {
+        List<CodeIssue> issues = Collections.synchronizedList(new ArrayList<>());
+        StreamingIssueParser parser = new StreamingIssueParser(streamingMaxIssues, streamingMaxChars, issueJson -> {
+            try {
+                CodeIssue issue = toCodeIssue(JSON.parseObject(issueJson), filePath);
+                issues.add(issue);
+                log.info("Streamed issue for file: {} issue:{}", filePath, issueJson);
+            } catch (Exception e) {
+                log.warn("Skip malformed streamed issue for file: {} issue:{}", filePath, issueJson);
+            }
+        });
+
+        long maxMillis = Math.min(TimeUnit.SECONDS.toMillis(streamingMaxSeconds), fileDeadline(context) - startTime);
+        AtomicLong completionTokens = new AtomicLong();
+        try {
+            reviewModelClient.stream(promptText, fileDeadline(context))
+                    .take(Duration.ofMillis(Math.max(maxMillis, 1)))
+                    .doOnNext(chunk -> completionTokens.addAndGet(CodeProcessingService.estimateTokens(chunk)))
+                    .takeWhile(parser::feed)
+                    .blockLast();
+        } finally {
+            tokenQuotaService.record(context.submission.getProjectId(), promptTokens(promptText) + completionTokens.get());
+        }
+
+        JSONObject topLevel = null;
+        String topLevelJson = parser.topLevelJson();
+        if (topLevelJson != null) {
+            try {
+                topLevel = JSON.parseObject(topLevelJson);
+            } catch (Exception e) {
+                log.warn("Failed to parse streamed top level fields for file: {} json:{}", filePath, topLevelJson);
+            }
+        }
+        if (topLevel == null && issues.isEmpty()) {
+            if (!parser.isStarted() && System.currentTimeMillis() - startTime >= maxMillis) {
+                return timedOutFileResult(filePath);
+            }
+            return parseFailureResult(filePath, "流式结果中未找到有效JSON", startTime);
+        }
+
+        boolean stoppedEarly = !parser.isCompleted();
+        FileInspectionResult result = new FileInspectionResult();
+        result.setHasIssues(topLevel == null ? !issues.isEmpty() : safeGetBoolean(topLevel, "hasIssues", !issues.isEmpty()));
+        String evaluation = topLevel == null ? null : safeGetString(topLevel, "fileEvaluation");
+        result.setFileEvaluation(stoppedEarly ? (evaluation == null ? "" : evaluation) + "（输出达到限制，已提前结束）" : evaluation);
+        result.setIssues(new ArrayList<>(issues));
+        result.setFilePath(filePath);
+        result.setProcessingTimeMs(System.currentTimeMillis() - startTime);
+        log.info("Streamed analysis finished for file: {} issues:{} chars:{} stoppedEarly:{}",
+                filePath, parser.getIssueCount(), parser.getCharsRead(), stoppedEarly);
+
+        // 提前结束的结果不完整，不落盘
+        if (!stoppedEarly) {
+            saveStoredResult(context.fileChanges.get(filePath), result);
+        }
+        return result;
+    }
+
+    /**
+     * 多个小文件合并为一次调用，模型遗漏或解析失败的文件再单独分析
+     */
+    private Map<String, FileInspectionResult> analyzePackedFiles(AnalysisContext context, List<String> batch) {
+        long startTime = System.currentTimeMillis();
+        Map<String, FileInspectionResult> results = new HashMap<>();
+        ModelReply reply = null;
+        try {
+            List<CodeChange> changes = new ArrayList<>(batch.size());
+            for (String filePath : batch) {
+                changes.add(context.fileChanges.get(filePath));
+            }
+            String promptText = codeProcessingService.generatePackedPrompt(changes, context.submission.getMessage());
+            log.info("Generated packed prompt for files: {} promptText:{}", batch, promptText);
+
+            reply = callAiModel(context.submission.getProjectId(), promptText, fileDeadline(context));
+            log.info("packed analysisResult:{}", reply.getContent());
+
+            results.putAll(parsePackedAnalysisResult(reply.getContent(), batch, startTime));
+            // 所有文件都解析成功才缓存，有遗漏的文件会单独分析
+            if (results.size() == batch.size()) {
+                cacheReply(promptText, reply);
+            }
+        } catch (ModelCallTimeoutException e) {
+            log.warn("Analyzing packed files {} timed out", batch);
+            putTimedOut(results, batch);
+            return results;
+        } catch (ModelUnavailableException e) {
+            log.warn("Model unavailable, skip packed files {}", batch);
+            for (String filePath : batch) {
+                results.put(filePath, failedFileResult(filePath, e));
+            }
+            return results;
+        } catch (Exception e) {
+            log.error("Error analyzing packed files {}, fallback to single file analysis", batch, e);
+        }
+
+        for (String filePath : batch) {
+            FileInspectionResult result = results.get(filePath);
+            if (result == null) {
+                results.put(filePath, analyzeFileSafely(context, filePath));
+            } else {
+                completeResult(context.fileChanges.get(filePath), result, reply);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 单个文件（或批次）的截止时间：不超过单文件超时，也不超过整个提交的截止时间
+     */
+    private long fileDeadline(AnalysisContext context) {
+        return Math.min(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(fileTimeoutSeconds), context.deadlineAt);
+    }
+
+    private static void putTimedOut(Map<String, FileInspectionResult> results, List<String> filePaths) {
+        for (String filePath : filePaths) {
+            results.put(filePath, timedOutFileResult(filePath));
+        }
+    }
+
+    private FileInspectionResult loadStoredResult(String filePath, CodeChange fileChange) {
+        if (!reviewResultStore.isEnabled()) {
+            return null;
+        }
+        long startTime = System.currentTimeMillis();
+        FileInspectionResult stored = reviewResultStore.get(storeKey(fileChange));
+        if (stored != null) {
+            log.info("Review store hit for file: {}", filePath);
+            stored.setFilePath(filePath);
+            stored.setProcessingTimeMs(System.currentTimeMillis() - startTime);
+        }
+        return stored;
+    }
+
+    /**
+     * 主模型的结果落盘；备用模型的结果只标注来源，不落盘，避免主模型恢复后仍复用
+     */
+    private void completeResult(CodeChange fileChange, FileInspectionResult result, ModelReply reply) {
+        if (reply.isFallback()) {
+            String evaluation = result.getFileEvaluation();
+            result.setFileEvaluation((evaluation == null ? "" : evaluation) + "（主模型不可用，由备用模型" + reply.getModel() + "生成）");
+        } else {
+            saveStoredResult(fileChange, result);
+        }
+    }
+
+    private void saveStoredResult(CodeChange fileChange, FileInspectionResult result) {
+        if (reviewResultStore.isEnabled() && !hasSystemError(result)) {
+            reviewResultStore.put(storeKey(fileChange), result);
+        }
+    }
+
+    private String storeKey(CodeChange fileChange) {
+        return ReviewResultStore.key(modelName, AIConfig.GITLAB_REVIEW_SYSTEM_PROMPT, codeProcessingService.contentHash(fileChange));
+    }
+
+    /**
+     * 结果中是否包含解析失败等系统错误（此类结果不落盘）
+     */
+    private static boolean hasSystemError(FileInspectionResult result) {
+        if (result.getIssues() == null) {
+            return false;
+        }
+        for (CodeIssue issue : result.getIssues()) {
+            if (ISSUE_TYPE_SYSTEM_ERROR.equals(issue.getIssueType())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static FileInspectionResult timedOutFileResult(String filePath) {
+        return new FileInspectionResult(
+                filePath,
+                false,
+                Collections.emptyList(),
+                0L,
+                "文件检测超时，未获取到大模型结果"
+        );
+    }
+
+    private static FileInspectionResult quotaExceededFileResult(String filePath, String reason) {
+        return new FileInspectionResult(
+                filePath,
+                false,
+                Collections.emptyList(),
+                0L,
+                "项目大模型额度不足（" + reason + "），非高风险文件本次未检测"
+        );
+    }
+
+    private static FileInspectionResult failedFileResult(String filePath, Throwable e) {
+        return new FileInspectionResult(
+                filePath,
+                false,
+                Collections.emptyList(),
+                0L,
+                "文件大模型识别失败：" + (e == null ? "未知错误" : e.getMessage())
+        );
+    }
+
+    /**
+     * 调用AI模型分析单个文件，相同的提示词直接返回缓存结果
+     *
+     * @param deadlineAt 截止时间戳（毫秒），超时抛出ModelCallTimeoutException；
+     *                   主模型熔断且没有备用模型时抛出ModelUnavailableException
+     */
+    private ModelReply callAiModel(Long projectId, String promptText, long deadlineAt) {
         Prompt prompt = new Prompt(promptText);
+        String cacheKey = ReviewResponseCache.key(modelName, AIConfig.GITLAB_REVIEW_SYSTEM_PROMPT, prompt.getContents());
+        String cached = reviewResponseCache.get(cacheKey);
+        if (cached != null) {
+            log.info("Review cache hit, key:{}", cacheKey);
+            return new ModelReply(cached, modelName, false);
+        }
 
-        return gitlabChatClient.prompt().user(prompt.getContents()).call().content();
+        ModelReply reply = reviewModelClient.call(prompt.getContents(), deadlineAt);
+        // 缓存命中不消耗额度，只统计实际调用；token数按提示词和输出估算
+        tokenQuotaService.record(projectId, promptTokens(prompt.getContents())
+                + CodeProcessingService.estimateTokens(reply.getContent() == null ? "" : reply.getContent()));
+        return reply;
     }
 
+    /**
+     * 回复解析成功后再写入缓存，格式错误的回复不缓存，避免相同提示词反复命中无法解析的结果；
+     * 缓存键按主模型计算，备用模型的结果不缓存
+     */
+    private void cacheReply(String promptText, ModelReply reply) {
+        if (!reply.isFallback()) {
+            Prompt prompt = new Prompt(promptText);
+            reviewResponseCache.put(ReviewResponseCache.key(modelName, AIConfig.GITLAB_REVIEW_SYSTEM_PROMPT, prompt.getContents()),
+                    reply.getContent());
+        }
+    }
 
-    public static FileInspectionResult parseFileAnalysisResult(String analysisText, String filePath, Long startTime) {
-        FileInspectionResult fileInspectionResult = new FileInspectionResult();
-        List<CodeIssue> issues = new ArrayList<>();
 
+    private static long promptTokens(String promptText) {
+        return CodeProcessingService.estimateTokens(AIConfig.GITLAB_REVIEW_SYSTEM_PROMPT) + CodeProcessingService.estimateTokens(promptText);
+    }
+
+    public static FileInspectionResult parseFileAnalysisResult(String analysisText, String filePath, Long startTime) {
         try {
             // 处理可能包含代码块的JSON字符串
             String cleanJsonText = extractJsonFromText(analysisText);
 
             // 解析JSON为FileInspectionResult对象
-            fileInspectionResult = JSON.parseObject(cleanJsonText, FileInspectionResult.class);
+            return toFileInspectionResult(JSON.parseObject(cleanJsonText), filePath, startTime);
 
-            // 如果没有问题，直接返回
-            if (fileInspectionResult.getHasIssues() != null && !fileInspectionResult.getHasIssues()) {
-                fileInspectionResult.setFilePath(filePath);
-                fileInspectionResult.setProcessingTimeMs(System.currentTimeMillis() - startTime);
-                return fileInspectionResult;
-            }
+        } catch (Exception e) {
+            log.error("Failed to parse file analysis result for {}: {}", filePath, e.getMessage());
+            return parseFailureResult(filePath, e.getMessage(), startTime);
+        }
+    }
+
+    /**
+     * 解析失败时，将解析错误作为一个问题返回
+     */
+    private static FileInspectionResult parseFailureResult(String filePath, String errorMessage, Long startTime) {
+        List<CodeIssue> issues = new ArrayList<>();
+        issues.add(CodeIssue.builder()
+                .fileName(extractFileName(filePath))
+                .filePath(filePath)
+                .description("分析结果解析失败：" + errorMessage)
+                .issueType(ISSUE_TYPE_SYSTEM_ERROR)
+                .severity("高")
+                .suggestedFix("请检查AI返回格式是否符合要求")
+                .build());
 
-            // 解析问题列表
-            JSONObject jsonObject = JSON.parseObject(cleanJsonText);
-            JSONArray issuesArray = jsonObject.getJSONArray("issues");
-
-            if (issuesArray != null && !issuesArray.isEmpty()) {
-                for (int i = 0; i < issuesArray.size(); i++) {
-                    JSONObject issueObj = issuesArray.getJSONObject(i);
-
-                    CodeIssue issue = CodeIssue.builder()
-                            .fileName(extractFileName(filePath))
-                            .filePath(filePath)
-                            .description(safeGetString(issueObj, "description"))
-                            .lineNumber(safeGetInteger(issueObj, "codeLine", -1))
-                            .issueType(safeGetString(issueObj, "issueType", "未分类"))
-                            .severity(safeGetString(issueObj, "severity", "中"))
-                            .suggestedFix(safeGetString(issueObj, "suggestedFix"))
-                            .fixedCodeExample(safeGetString(issueObj, "fixedCodeExample"))
-                            .reason(safeGetString(issueObj, "reason"))
-                            .build();
-
-                    issues.add(issue);
+        FileInspectionResult fileInspectionResult = new FileInspectionResult();
+        fileInspectionResult.setIssues(issues);
+        fileInspectionResult.setFilePath(filePath);
+        fileInspectionResult.setProcessingTimeMs(System.currentTimeMillis() - startTime);
+        return fileInspectionResult;
+    }
+
+    /**
+     * 解析多文件合并请求的结果（以文件路径为键的JSON对象），只返回成功解析的文件
+     */
+    public static Map<String, FileInspectionResult> parsePackedAnalysisResult(String analysisText, List<String> filePaths, Long startTime) {
+        Map<String, FileInspectionResult> results = new HashMap<>();
+        JSONObject root;
+        try {
+            root = JSON.parseObject(extractJsonFromText(analysisText));
+        } catch (Exception e) {
+            log.error("Failed to parse packed analysis result for {}: {}", filePaths, e.getMessage());
+            return results;
+        }
+        if (root == null) {
+            return results;
+        }
+        for (String filePath : filePaths) {
+            try {
+                JSONObject fileObject = root.getJSONObject(filePath);
+                if (fileObject != null) {
+                    results.put(filePath, toFileInspectionResult(fileObject, filePath, startTime));
                 }
+            } catch (Exception e) {
+                log.error("Failed to parse packed analysis result for {}: {}", filePath, e.getMessage());
             }
+        }
+        return results;
+    }
 
-        } catch (Exception e) {
-            log.error("Failed to parse file analysis result for {}: {}", filePath, e.getMessage());
-            // 添加解析错误作为一个问题
-            issues.add(CodeIssue.builder()
-                    .fileName(extractFileName(filePath))
-                    .filePath(filePath)
-                    .description("分析结果解析失败：" + e.getMessage())
-                    .issueType("系统错误")
-                    .severity("高")
-                    .suggestedFix("请检查AI返回格式是否符合要求")
-                    .build());
+    private static FileInspectionResult toFileInspectionResult(JSONObject jsonObject, String filePath, Long startTime) {
+        FileInspectionResult fileInspectionResult = new FileInspectionResult();
+        fileInspectionResult.setHasIssues(safeGetBoolean(jsonObject, "hasIssues", null));
+        fileInspectionResult.setFileEvaluation(safeGetString(jsonObject, "fileEvaluation"));
+
+        // 解析问题列表（没有问题时忽略issues）
+        List<CodeIssue> issues = new ArrayList<>();
+        JSONArray issuesArray = Boolean.FALSE.equals(fileInspectionResult.getHasIssues())
+                ? null : jsonObject.getJSONArray("issues");
+        if (issuesArray != null && !issuesArray.isEmpty()) {
+            for (int i = 0; i < issuesArray.size(); i++) {
+                issues.add(toCodeIssue(issuesArray.getJSONObject(i), filePath));
+            }
         }
 
         fileInspectionResult.setIssues(issues);
@@ -154,9 +757,26 @@ public class AnalysisService {
     }
 
     /**
-     * 从文本中提取JSON内容（处理可能包含代码块的情况）
+     * 将单个问题的JSON对象转换为CodeIssue
      */
-    private static String extractJsonFromText(String text) {
+    public static CodeIssue toCodeIssue(JSONObject issueObj, String filePath) {
+        return CodeIssue.builder()
+                .fileName(extractFileName(filePath))
+                .filePath(filePath)
+                .description(safeGetString(issueObj, "description"))
+                .lineNumber(safeGetInteger(issueObj, "codeLine", -1))
+                .issueType(safeGetString(issueObj, "issueType", "未分类"))
+                .severity(safeGetString(issueObj, "severity", "中"))
+                .suggestedFix(safeGetString(issueObj, "suggestedFix"))
+                .fixedCodeExample(safeGetString(issueObj, "fixedCodeExample"))
+                .reason(safeGetString(issueObj, "reason"))
+                .build();
+    }
+
+    /**
+     * 从文本中提取JSON内容（处理可能包含代码块的情况），包可见，供基准测试调用
+     */
+    static String extractJsonFromText(String text) {
         if (text == null || text.trim().isEmpty()) {
             return "{}";
         }
@@ -277,6 +897,42 @@ public class AnalysisService {
         return lastSlash != -1 ? filePath.substring(lastSlash + 1) : filePath;
     }
 
+    /**
+     * 单次提交的分析上下文
+     */
+    private static class AnalysisContext {
+
+        final CodeSubmission submission;
+
+        final Map<String, CodeChange> fileChanges;
 
+        /**
+         * 整个提交的截止时间戳（毫秒）
+         */
+        final long deadlineAt;
 
+        /**
+         * 审查任务是否已被取代或取消
+         */
+        final BooleanSupplier cancelled;
+
+        AnalysisContext(CodeSubmission submission, Map<String, CodeChange> fileChanges, long deadlineAt,
+                        BooleanSupplier cancelled) {
+            this.submission = submission;
+            this.fileChanges = fileChanges;
+            this.deadlineAt = deadlineAt;
+            this.cancelled = cancelled;
+        }
+
+        long remainingMillis() {
+            return deadlineAt - System.currentTimeMillis();
+        }
+
+        /**
+         * 已过截止时间或任务已取消时，剩余文件不再调用大模型
+         */
+        boolean isExpired() {
+            return remainingMillis() <= 0 || cancelled.getAsBoolean();
+        }
+    }
 }
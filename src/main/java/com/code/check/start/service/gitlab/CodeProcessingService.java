@@ -1,18 +1,18 @@
 package com.code.check.start.service.gitlab;
 
 import com.code.check.start.model.CodeChange;
-import com.code.check.start.model.CodeLine;
+import com.code.check.start.model.CodeLines;
 import com.code.check.start.model.CodeSubmission;
+import com.code.check.start.utils.HashUtil;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.gitlab4j.api.models.Commit;
 import org.gitlab4j.api.models.Diff;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 @Service
@@ -28,9 +28,10 @@ public class CodeProcessingService {
     @Value("${app.code-inspect.max-code-lines}")
     private int maxCodeLines;
 
-    private static final Pattern DIFF_HEADER_PATTERN = Pattern.compile("^@@ -(\\d+)(?:,(\\d+))? \\+(\\d+)(?:,(\\d+))? @@");
-    private static final Pattern NEW_FILE_PATTERN = Pattern.compile("^\\+\\+\\+ b/(.+)");
-    private static final Pattern DELETED_FILE_PATTERN = Pattern.compile("^--- a/(.+)");
+    /**
+     * 单个文件检查结果的JSON格式说明
+     */
+    private static final String FILE_RESULT_JSON_FORMAT = "{\"hasIssues\":bool,\"fileEvaluation\":\"str\",\"issues\":[{\"description\":\"str\",\"codeLine\":int,\"issueType\":\"错误|警告|建议\",\"severity\":\"高|中|低\",\"suggestedFix\":\"str\",\"fixedCodeExample\":\"str\",\"reason\":\"str\"}]}";
 
     /**
      * 处理代码提交，按文件组织代码变更
@@ -40,20 +41,26 @@ public class CodeProcessingService {
             List<Diff> allDiffs = new ArrayList<>();
 
             // 根据提交类型获取所有差异
-            if (submission.getType() == CodeSubmission.SubmissionType.PUSH) {
+            if (submission.getType() == CodeSubmission.SubmissionType.PUSH && isAggregatedPush(submission)) {
+                // 整次推送合并审查：取推送前后的净变更，中间提交反复修改的行只审查最终版本
+                Map<String, CodeChange> fileChanges = groupDiffsByFile(gitLabService.compare(
+                        submission.getProjectId(),
+                        submission.getBaseCommitId(),
+                        submission.getCommitId()
+                ));
+                attributeCommits(submission, fileChanges);
+                return fileChanges;
+            } else if (submission.getType() == CodeSubmission.SubmissionType.PUSH) {
                 allDiffs.addAll(gitLabService.getCommitDiffs(
                         submission.getProjectId(),
                         submission.getCommitId()
                 ));
             } else if (submission.getType() == CodeSubmission.SubmissionType.MERGE_REQUEST) {
-                List<Commit> commits = gitLabService.getMergeRequestCommits(
+                // 直接取合并请求的净变更，避免逐个提交拉取diff后重复审查中间版本
+                allDiffs.addAll(gitLabService.getMergeRequestChanges(
                         submission.getProjectId(),
                         submission.getMergeRequestId()
-                );
-
-                for (Commit commit : commits) {
-                    allDiffs.addAll(gitLabService.getCommitDiffs(submission.getProjectId(), commit.getId()));
-                }
+                ));
             }
 
             // 按文件分组处理差异
@@ -65,10 +72,51 @@ public class CodeProcessingService {
         }
     }
 
+    private static boolean isAggregatedPush(CodeSubmission submission) {
+        return submission.getBaseCommitId() != null && submission.getCommits() != null && submission.getCommits().size() > 1;
+    }
+
     /**
-     * 将差异按文件分组，每个文件对应一个CodeChange对象
+     * 标注每个文件由本次推送中的哪些提交修改，各提交的diff并发拉取；拉取失败不影响审查
      */
-    private Map<String, CodeChange> groupDiffsByFile(List<Diff> diffs) {
+    private void attributeCommits(CodeSubmission submission, Map<String, CodeChange> fileChanges) {
+        if (fileChanges.isEmpty()) {
+            return;
+        }
+        Map<String, CodeSubmission.CommitInfo> commitsById = new LinkedHashMap<>();
+        for (CodeSubmission.CommitInfo commit : submission.getCommits()) {
+            commitsById.put(commit.getId(), commit);
+        }
+        try {
+            Map<String, List<Diff>> diffsByCommit = gitLabService.getCommitDiffs(
+                    submission.getProjectId(), new ArrayList<>(commitsById.keySet()));
+            for (Map.Entry<String, List<Diff>> entry : diffsByCommit.entrySet()) {
+                CodeSubmission.CommitInfo commit = commitsById.get(entry.getKey());
+                String label = shortId(commit.getId()) + " " + commit.getTitle();
+                for (Diff diff : entry.getValue()) {
+                    CodeChange change = fileChanges.get(getFilePath(diff));
+                    if (change == null) {
+                        continue;
+                    }
+                    if (change.getRelatedCommits() == null) {
+                        change.setRelatedCommits(new ArrayList<>());
+                    }
+                    change.getRelatedCommits().add(label);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Failed to attribute commits for push {}..{}", submission.getBaseCommitId(), submission.getCommitId(), e);
+        }
+    }
+
+    private static String shortId(String commitId) {
+        return commitId != null && commitId.length() > 8 ? commitId.substring(0, 8) : commitId;
+    }
+
+    /**
+     * 将差异按文件分组，每个文件对应一个CodeChange对象（包可见，供基准测试调用）
+     */
+    Map<String, CodeChange> groupDiffsByFile(List<Diff> diffs) {
         // 解析需要忽略的文件类型
         List<String> ignoreTypes = Arrays.asList(ignoreFileTypes.split(","));
 
@@ -95,8 +143,8 @@ public class CodeProcessingService {
      */
     private CodeChange aggregateDiffsForFile(String filePath, List<Diff> fileDiffs) {
         String fileName = extractFileName(filePath);
-        List<CodeLine> addedLines = new ArrayList<>();
-        List<CodeLine> removedLines = new ArrayList<>();
+        CodeLines addedLines = new CodeLines();
+        CodeLines removedLines = new CodeLines();
         boolean isNewFile = false;
         boolean isDeleted = false;
         String oldPath = null;
@@ -118,9 +166,11 @@ public class CodeProcessingService {
 
         // 限制处理的代码行数
         if (addedLines.size() > maxCodeLines) {
-            addedLines = addedLines.subList(0, maxCodeLines);
-            addedLines.add(new CodeLine(-1, "[代码过长，已截断剩余内容]"));
+            addedLines.truncate(maxCodeLines);
+            addedLines.append(-1, "[代码过长，已截断剩余内容]");
         }
+        addedLines.trimToSize();
+        removedLines.trimToSize();
 
         return CodeChange.builder()
                 .fileName(fileName)
@@ -139,73 +189,18 @@ public class CodeProcessingService {
      * @param addedLines 存储新增的代码行
      * @param removedLines 存储删除的代码行
      */
-    private void parseDiffContent(String diffContent, List<CodeLine> addedLines, List<CodeLine> removedLines) {
-        if (diffContent == null || diffContent.trim().isEmpty()) {
-            return;
-        }
-
-        String[] lines = diffContent.split("\n");
-        int currentLineNumber = 0;
-        int oldLineNumber = 0;
-        int newLineNumber = 0;
-        String currentFile = null;
-        boolean inHunk = false;
-
-        for (String line : lines) {
-            // 检查是否是文件头
-            Matcher newFileMatcher = NEW_FILE_PATTERN.matcher(line);
-            if (newFileMatcher.find()) {
-                currentFile = newFileMatcher.group(1);
-                continue;
+    void parseDiffContent(String diffContent, CodeLines addedLines, CodeLines removedLines) {
+        UnifiedDiffParser.parse(diffContent, new UnifiedDiffParser.LineHandler() {
+            @Override
+            public void added(int lineNumber, String source, int start, int end) {
+                addedLines.append(lineNumber, source, start, end);
             }
 
-            // 检查是否是diff块头
-            Matcher diffHeaderMatcher = DIFF_HEADER_PATTERN.matcher(line);
-            if (diffHeaderMatcher.find()) {
-                inHunk = true;
-                // 解析旧文件起始行和行数
-                oldLineNumber = Integer.parseInt(diffHeaderMatcher.group(1));
-                String oldLineCountStr = diffHeaderMatcher.group(2);
-                int oldLineCount = oldLineCountStr != null ? Integer.parseInt(oldLineCountStr) : 1;
-
-                // 解析新文件起始行和行数
-                newLineNumber = Integer.parseInt(diffHeaderMatcher.group(3));
-                String newLineCountStr = diffHeaderMatcher.group(4);
-                int newLineCount = newLineCountStr != null ? Integer.parseInt(newLineCountStr) : 1;
-
-                // 重置当前行号
-                currentLineNumber = newLineNumber;
-                continue;
+            @Override
+            public void removed(int lineNumber, String source, int start, int end) {
+                removedLines.append(lineNumber, source, start, end);
             }
-
-            if (!inHunk) {
-                continue;
-            }
-
-            // 处理diff内容行
-            if (line.startsWith("+") && !line.startsWith("++")) {
-                // 新增的行
-                String code = line.substring(1);
-                addedLines.add(new CodeLine(currentLineNumber, code));
-                currentLineNumber++;
-                newLineNumber++;
-            } else if (line.startsWith("-") && !line.startsWith("--")) {
-                // 删除的行
-                String code = line.substring(1);
-                removedLines.add(new CodeLine(oldLineNumber, code));
-                oldLineNumber++;
-            } else if (line.startsWith(" ")) {
-                // 未更改的行，更新行号计数器
-                currentLineNumber++;
-                oldLineNumber++;
-            } else if (line.startsWith("\\")) {
-                //  diff的结束标记，如：\ No newline at end of file
-                continue;
-            } else {
-                // 其他情况（可能是diff块结束）
-                inHunk = false;
-            }
-        }
+        });
     }
 
     /**
@@ -224,17 +219,19 @@ public class CodeProcessingService {
 
         if (!fileChange.getAddedLines().isEmpty()) {
             promptBuilder.append("\n新增代码：\n");
-            for (int i = 0; i < fileChange.getAddedLines().size(); i++) {
-                CodeLine codeLine = fileChange.getAddedLines().get(i);
-                promptBuilder.append("+ 第").append(codeLine.getLineNumber()).append("行: ").append(codeLine.getCodeLine()).append("\n");
+            CodeLines addedLines = fileChange.getAddedLines();
+            for (int i = 0; i < addedLines.size(); i++) {
+                promptBuilder.append("+ 第").append(addedLines.lineNumberAt(i)).append("行: ");
+                addedLines.appendCodeLine(promptBuilder, i).append("\n");
             }
         }
 
         if (!fileChange.getRemovedLines().isEmpty() && fileChange.getRemovedLines().size() <= 10) {
             promptBuilder.append("\n删除代码：\n");
-            for (int i = 0; i < fileChange.getRemovedLines().size(); i++) {
-                CodeLine codeLine = fileChange.getRemovedLines().get(i);
-                promptBuilder.append("- 第").append(codeLine.getLineNumber()).append("行: ").append(codeLine.getCodeLine()).append("\n");
+            CodeLines removedLines = fileChange.getRemovedLines();
+            for (int i = 0; i < removedLines.size(); i++) {
+                promptBuilder.append("- 第").append(removedLines.lineNumberAt(i)).append("行: ");
+                removedLines.appendCodeLine(promptBuilder, i).append("\n");
             }
         }
 
@@ -278,28 +275,114 @@ public class CodeProcessingService {
         }
 
         // 优化代码展示格式
+        appendChangeLines(promptBuilder, fileChange);
+
+        // 大幅精简JSON格式说明（减少70% Token）
+        promptBuilder.append("\n输出严格JSON格式：\n");
+        promptBuilder.append(FILE_RESULT_JSON_FORMAT).append("\n");
+        promptBuilder.append("规则: hasIssues为false时issues为空; codeLine不确定填-1; 确保JSON可解析");
+
+        return promptBuilder.toString();
+    }
+
+    /**
+     * 多个小文件合并为一次请求的提示词，要求模型返回以文件路径为键的JSON对象
+     */
+    public String generatePackedPrompt(List<CodeChange> fileChanges, String commitMessage) {
+        StringBuilder promptBuilder = new StringBuilder();
+
+        promptBuilder.append("代码审计：分别检查以下").append(fileChanges.size())
+                .append("个文件的代码变更，专注阿里规范。重点金额魔法值参数。\n\n");
+        promptBuilder.append("提交: ").append(commitMessage).append("\n");
+
+        for (CodeChange fileChange : fileChanges) {
+            promptBuilder.append("\n=== 文件: ").append(fileChange.getFilePath());
+            if (fileChange.getIsNewFile()) {
+                promptBuilder.append(" [新文件]");
+            }
+            promptBuilder.append("\n");
+            appendChangeLines(promptBuilder, fileChange);
+        }
+
+        promptBuilder.append("\n输出严格JSON对象，键为上方\"文件:\"后的完整路径，值为该文件的检查结果：\n");
+        promptBuilder.append("{\"文件路径\":").append(FILE_RESULT_JSON_FORMAT).append("}\n");
+        promptBuilder.append("规则: 每个文件都必须输出; hasIssues为false时issues为空; codeLine不确定填-1; 确保JSON可解析");
+
+        return promptBuilder.toString();
+    }
+
+    /**
+     * 估算单个文件变更在提示词中占用的token数（不含固定指令部分）
+     */
+    public int estimateChangeTokens(CodeChange fileChange) {
+        StringBuilder builder = new StringBuilder(fileChange.getFilePath());
+        appendChangeLines(builder, fileChange);
+        return estimateTokens(builder);
+    }
+
+    /**
+     * 粗略估算token数：ASCII字符约4个一个token，中文等其他字符按一个token计
+     */
+    public static int estimateTokens(CharSequence text) {
+        int asciiChars = 0;
+        int otherChars = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < 128) {
+                asciiChars++;
+            } else {
+                otherChars++;
+            }
+        }
+        return asciiChars / 4 + otherChars + 1;
+    }
+
+    private void appendChangeLines(StringBuilder promptBuilder, CodeChange fileChange) {
         if (!fileChange.getAddedLines().isEmpty()) {
             promptBuilder.append("\n+++ 新增:\n");
-            for (CodeLine codeLine : fileChange.getAddedLines()) {
-                promptBuilder.append("+L").append(codeLine.getLineNumber())
-                        .append(": ").append(codeLine.getCodeLine()).append("\n");
+            CodeLines addedLines = fileChange.getAddedLines();
+            for (int i = 0; i < addedLines.size(); i++) {
+                promptBuilder.append("+L").append(addedLines.lineNumberAt(i)).append(": ");
+                addedLines.appendCodeLine(promptBuilder, i).append("\n");
             }
         }
 
         if (!fileChange.getRemovedLines().isEmpty() && fileChange.getRemovedLines().size() <= 10) {
             promptBuilder.append("\n--- 删除:\n");
-            for (CodeLine codeLine : fileChange.getRemovedLines()) {
-                promptBuilder.append("-L").append(codeLine.getLineNumber())
-                        .append(": ").append(codeLine.getCodeLine()).append("\n");
+            CodeLines removedLines = fileChange.getRemovedLines();
+            for (int i = 0; i < removedLines.size(); i++) {
+                promptBuilder.append("-L").append(removedLines.lineNumberAt(i)).append(": ");
+                removedLines.appendCodeLine(promptBuilder, i).append("\n");
             }
         }
+    }
 
-        // 大幅精简JSON格式说明（减少70% Token）
-        promptBuilder.append("\n输出严格JSON格式：\n");
-        promptBuilder.append("{\"hasIssues\":bool,\"fileEvaluation\":\"str\",\"issues\":[{\"description\":\"str\",\"codeLine\":int,\"issueType\":\"错误|警告|建议\",\"severity\":\"高|中|低\",\"suggestedFix\":\"str\",\"fixedCodeExample\":\"str\",\"reason\":\"str\"}]}\n");
-        promptBuilder.append("规则: hasIssues为false时issues为空; codeLine不确定填-1; 确保JSON可解析");
+    /**
+     * 计算文件变更内容摘要（路径、新文件标识及增删的代码行），与提交信息无关，
+     * cherry-pick、rebase后内容相同的变更得到相同的摘要
+     */
+    public String contentHash(CodeChange fileChange) {
+        MessageDigest digest = HashUtil.newSha256();
+        updateDigest(digest, fileChange.getFilePath());
+        updateDigest(digest, String.valueOf(fileChange.getIsNewFile()));
+        updateDigest(digest, "+");
+        updateDigest(digest, fileChange.getAddedLines());
+        updateDigest(digest, "-");
+        updateDigest(digest, fileChange.getRemovedLines());
+        return HashUtil.toHex(digest.digest());
+    }
 
-        return promptBuilder.toString();
+    private static void updateDigest(MessageDigest digest, CodeLines lines) {
+        for (int i = 0; i < lines.size(); i++) {
+            updateDigest(digest, String.valueOf(lines.lineNumberAt(i)));
+            updateDigest(digest, lines.codeLineAt(i));
+        }
+    }
+
+    private static void updateDigest(MessageDigest digest, String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
     }
 
     // 其他辅助方法保持不变
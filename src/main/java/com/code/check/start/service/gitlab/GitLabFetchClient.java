@@ -0,0 +1,419 @@
+package com.code.check.start.service.gitlab;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.ConnectionPool;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.gitlab4j.api.GitLabApiException;
+import org.gitlab4j.api.models.Diff;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/19 10:20
+ * @desc GitLab diff拉取层：复用长连接，多个提交的diff并发拉取（有并发上限），
+ * 遵循GitLab返回的RateLimit-Remaining/RateLimit-Reset/Retry-After响应头，
+ * 对只读请求在网络错误、429和5xx时按指数退避重试，并自动翻页
+ */
+@Component
+@Slf4j
+public class GitLabFetchClient {
+
+    private static final int PER_PAGE = 100;
+
+    @Value("${gitlab.base-url}")
+    private String gitLabBaseUrl;
+
+    @Value("${gitlab.private-token}")
+    private String privateToken;
+
+    /**
+     * 同时拉取diff的最大请求数
+     */
+    @Value("${gitlab.fetch.concurrency:4}")
+    private int concurrency;
+
+    @Value("${gitlab.fetch.max-retries:3}")
+    private int maxRetries;
+
+    @Value("${gitlab.fetch.backoff-millis:500}")
+    private long backoffMillis;
+
+    @Value("${gitlab.fetch.max-backoff-millis:30000}")
+    private long maxBackoffMillis;
+
+    @Value("${gitlab.fetch.connect-timeout-millis:5000}")
+    private long connectTimeoutMillis;
+
+    @Value("${gitlab.fetch.read-timeout-millis:30000}")
+    private long readTimeoutMillis;
+
+    @Value("${gitlab.fetch.max-idle-connections:8}")
+    private int maxIdleConnections;
+
+    /**
+     * 剩余请求配额低于该值时暂停到配额重置
+     */
+    @Value("${gitlab.fetch.rate-limit-min-remaining:5}")
+    private int rateLimitMinRemaining;
+
+    /**
+     * 是否跳过证书和主机名校验，仅用于自签名证书的内网GitLab，默认校验
+     */
+    @Value("${gitlab.fetch.ignore-certificate-errors:false}")
+    private boolean ignoreCertificateErrors;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private OkHttpClient httpClient;
+
+    private ExecutorService fetchExecutor;
+
+    private final AtomicInteger threadIndex = new AtomicInteger();
+
+    /**
+     * 被限流后所有请求暂停到该时间点
+     */
+    private final AtomicLong pausedUntil = new AtomicLong();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long lastRateLimitRemaining = -1;
+
+    @PostConstruct
+    public void init() throws GeneralSecurityException {
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, 5, TimeUnit.MINUTES))
+                .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(false);
+        if (ignoreCertificateErrors) {
+            log.warn("gitlab.fetch.ignore-certificate-errors is enabled, TLS certificate and hostname verification is disabled for GitLab requests");
+            X509TrustManager trustAll = new X509TrustManager() {
+                @Override
+                public void checkClientTrusted(X509Certificate[] chain, String authType) {
+                }
+
+                @Override
+                public void checkServerTrusted(X509Certificate[] chain, String authType) {
+                }
+
+                @Override
+                public X509Certificate[] getAcceptedIssuers() {
+                    return new X509Certificate[0];
+                }
+            };
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, new TrustManager[]{trustAll}, new SecureRandom());
+            builder.sslSocketFactory(sslContext.getSocketFactory(), trustAll).hostnameVerifier((host, session) -> true);
+        }
+        httpClient = builder.build();
+        fetchExecutor = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread thread = new Thread(r, "gitlab-fetch-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        fetchExecutor.shutdownNow();
+        httpClient.dispatcher().executorService().shutdown();
+        httpClient.connectionPool().evictAll();
+    }
+
+    /**
+     * 获取单个提交的全部变更文件（自动翻页）
+     */
+    public List<Diff> getCommitDiffs(Long projectId, String commitId) throws GitLabApiException {
+        List<Diff> diffs = new ArrayList<>();
+        int page = 1;
+        while (page > 0) {
+            HttpUrl url = apiUrl("projects", String.valueOf(projectId), "repository", "commits", commitId, "diff")
+                    .addQueryParameter("per_page", String.valueOf(PER_PAGE))
+                    .addQueryParameter("page", String.valueOf(page))
+                    .build();
+            Page result = get(url, null);
+            for (JsonNode node : result.body) {
+                diffs.add(objectMapper.convertValue(node, Diff.class));
+            }
+            page = result.nextPage;
+        }
+        return diffs;
+    }
+
+    /**
+     * 并发获取多个提交的变更文件，结果按传入顺序排列；任一提交拉取失败则抛出异常
+     */
+    public Map<String, List<Diff>> getCommitDiffs(Long projectId, List<String> commitIds) throws GitLabApiException {
+        Map<String, Future<List<Diff>>> futures = new LinkedHashMap<>();
+        for (String commitId : commitIds) {
+            futures.put(commitId, fetchExecutor.submit(() -> getCommitDiffs(projectId, commitId)));
+        }
+        Map<String, List<Diff>> results = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<String, Future<List<Diff>>> entry : futures.entrySet()) {
+                results.put(entry.getKey(), entry.getValue().get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GitLabApiException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof GitLabApiException ? (GitLabApiException) cause : new GitLabApiException((Exception) cause);
+        } finally {
+            for (Future<List<Diff>> future : futures.values()) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 比较两个提交之间的净变更（from..to），每个文件一份最终diff
+     */
+    public List<Diff> compare(Long projectId, String from, String to) throws GitLabApiException {
+        HttpUrl url = apiUrl("projects", String.valueOf(projectId), "repository", "compare")
+                .addQueryParameter("from", from)
+                .addQueryParameter("to", to)
+                .build();
+        JsonNode body = get(url, null).body;
+        if (body.path("compare_timeout").asBoolean(false)) {
+            log.warn("GitLab compare {}..{} of project {} timed out, diffs may be incomplete", from, to, projectId);
+        }
+        JsonNode nodes = body.path("diffs");
+        List<Diff> diffs = new ArrayList<>(nodes.size());
+        for (JsonNode node : nodes) {
+            diffs.add(objectMapper.convertValue(node, Diff.class));
+        }
+        return diffs;
+    }
+
+    /**
+     * 获取合并请求的最终变更（源分支相对目标分支的净diff）
+     *
+     * @param etag 上次响应的ETag，内容未变化时返回notModified
+     */
+    public Conditional<List<Diff>> getMergeRequestChanges(Long projectId, Long mergeRequestIid, String etag)
+            throws GitLabApiException {
+        HttpUrl url = apiUrl("projects", String.valueOf(projectId), "merge_requests", String.valueOf(mergeRequestIid), "changes")
+                .build();
+        Page page = get(url, etag);
+        if (page.notModified) {
+            return Conditional.notModified(etag);
+        }
+        JsonNode changes = page.body.path("changes");
+        List<Diff> diffs = new ArrayList<>(changes.size());
+        for (JsonNode node : changes) {
+            diffs.add(objectMapper.convertValue(node, Diff.class));
+        }
+        return new Conditional<>(diffs, page.etag, false);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("concurrency", concurrency);
+        stats.put("requests", requests.get());
+        stats.put("retries", retries.get());
+        stats.put("rateLimited", rateLimited.get());
+        stats.put("failures", failures.get());
+        stats.put("rateLimitRemaining", lastRateLimitRemaining);
+        stats.put("pausedMs", Math.max(0, pausedUntil.get() - System.currentTimeMillis()));
+        stats.put("idleConnections", httpClient.connectionPool().idleConnectionCount());
+        stats.put("connections", httpClient.connectionPool().connectionCount());
+        return stats;
+    }
+
+    /**
+     * 带重试的GET请求
+     *
+     * @param etag 不为空时携带If-None-Match做条件请求
+     */
+    private Page get(HttpUrl url, String etag) throws GitLabApiException {
+        Request.Builder requestBuilder = new Request.Builder()
+                .url(url)
+                .header("PRIVATE-TOKEN", privateToken)
+                .get();
+        if (etag != null) {
+            requestBuilder.header("If-None-Match", etag);
+        }
+        Request request = requestBuilder.build();
+        for (int attempt = 0; ; attempt++) {
+            awaitRateLimit();
+            requests.incrementAndGet();
+            long retryAfterMillis = -1;
+            String error;
+            try (Response response = httpClient.newCall(request).execute()) {
+                updateRateLimit(response);
+                int code = response.code();
+                if (code == 304) {
+                    return new Page(null, 0, etag, true);
+                }
+                if (response.isSuccessful()) {
+                    ResponseBody body = response.body();
+                    JsonNode json = objectMapper.readTree(body == null ? "null" : body.string());
+                    return new Page(json, parseInt(response.header("X-Next-Page"), 0), response.header("ETag"), false);
+                }
+                error = "HTTP " + code + " " + response.message();
+                if (code != 429 && code < 500) {
+                    failures.incrementAndGet();
+                    throw new GitLabApiException(error + " for " + url.encodedPath(), code);
+                }
+                if (code == 429) {
+                    rateLimited.incrementAndGet();
+                }
+                retryAfterMillis = TimeUnit.SECONDS.toMillis(parseInt(response.header("Retry-After"), -1));
+            } catch (IOException e) {
+                error = e.toString();
+            }
+
+            if (attempt >= maxRetries) {
+                failures.incrementAndGet();
+                throw new GitLabApiException("GitLab request failed after " + (attempt + 1) + " attempts: " + error);
+            }
+            long delay = retryAfterMillis >= 0 ? retryAfterMillis : backoff(attempt);
+            if (retryAfterMillis >= 0) {
+                pauseUntil(System.currentTimeMillis() + delay);
+            }
+            retries.incrementAndGet();
+            log.warn("GitLab request {} failed: {}, retry in {}ms", url.encodedPath(), error, delay);
+            sleep(delay);
+        }
+    }
+
+    /**
+     * 记录剩余配额，低于阈值时暂停到配额重置时间
+     */
+    private void updateRateLimit(Response response) {
+        int remaining = parseInt(response.header("RateLimit-Remaining"), -1);
+        if (remaining < 0) {
+            return;
+        }
+        lastRateLimitRemaining = remaining;
+        if (remaining <= rateLimitMinRemaining) {
+            // RateLimit-Reset为配额重置时间的Unix时间戳（秒）
+            long resetAt = TimeUnit.SECONDS.toMillis(parseLong(response.header("RateLimit-Reset"), -1));
+            if (resetAt > System.currentTimeMillis()) {
+                log.warn("GitLab rate limit remaining {}, pausing until reset", remaining);
+                pauseUntil(Math.min(resetAt, System.currentTimeMillis() + maxBackoffMillis));
+            }
+        }
+    }
+
+    private void pauseUntil(long until) {
+        pausedUntil.accumulateAndGet(until, Math::max);
+    }
+
+    private void awaitRateLimit() throws GitLabApiException {
+        long wait = pausedUntil.get() - System.currentTimeMillis();
+        if (wait > 0) {
+            sleep(wait);
+        }
+    }
+
+    private long backoff(int attempt) {
+        long delay = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private static void sleep(long millis) throws GitLabApiException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GitLabApiException(e);
+        }
+    }
+
+    private HttpUrl.Builder apiUrl(String... segments) {
+        HttpUrl base = HttpUrl.get(gitLabBaseUrl.endsWith("/") ? gitLabBaseUrl : gitLabBaseUrl + "/");
+        HttpUrl.Builder builder = base.newBuilder().addPathSegments("api/v4");
+        for (String segment : segments) {
+            builder.addPathSegment(segment);
+        }
+        return builder;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        return (int) parseLong(value, defaultValue);
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static class Page {
+        final JsonNode body;
+        final int nextPage;
+        final String etag;
+        final boolean notModified;
+
+        Page(JsonNode body, int nextPage, String etag, boolean notModified) {
+            this.body = body;
+            this.nextPage = nextPage;
+            this.etag = etag;
+            this.notModified = notModified;
+        }
+    }
+
+    /**
+     * 条件请求的结果，notModified为true时value为空，调用方沿用本地缓存
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Conditional<T> {
+
+        private final T value;
+
+        private final String etag;
+
+        private final boolean notModified;
+
+        static <T> Conditional<T> notModified(String etag) {
+            return new Conditional<>(null, etag, true);
+        }
+    }
+}
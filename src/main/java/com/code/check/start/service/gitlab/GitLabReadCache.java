@@ -0,0 +1,124 @@
+package com.code.check.start.service.gitlab;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/19 11:30
+ * @desc GitLab读取结果的内存缓存，按估算的字节数做LRU淘汰。
+ * 不可变对象（按SHA寻址的提交、提交diff）命中即直接返回；
+ * 可变对象（合并请求）保存ETag，由调用方带If-None-Match重新校验
+ */
+@Component
+public class GitLabReadCache {
+
+    @Value("${gitlab.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${gitlab.cache.max-size-mb:64}")
+    private long maxSizeMb;
+
+    /**
+     * accessOrder=true，迭代顺序即最近最少使用顺序
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private long bytes;
+
+    private long hits;
+    private long misses;
+    private long revalidated;
+    private long evictions;
+
+    /**
+     * 读取缓存，不存在时返回null；revalidation为true表示本次命中还需要向GitLab校验ETag
+     */
+    public synchronized Entry get(String key, boolean revalidation) {
+        if (!enabled) {
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+        } else if (!revalidation) {
+            hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * 记录一次ETag校验结果：true为304未变化，false为内容已变化
+     */
+    public synchronized void recordRevalidation(boolean notModified) {
+        if (notModified) {
+            revalidated++;
+        } else {
+            misses++;
+        }
+    }
+
+    public synchronized void put(String key, Object value, String etag, long sizeBytes) {
+        if (!enabled || value == null || sizeBytes > maxBytes()) {
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(value, etag, sizeBytes));
+        if (previous != null) {
+            bytes -= previous.sizeBytes;
+        }
+        bytes += sizeBytes;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (bytes > maxBytes() && iterator.hasNext()) {
+            bytes -= iterator.next().sizeBytes;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long lookups = hits + revalidated + misses;
+        stats.put("enabled", enabled);
+        stats.put("entries", entries.size());
+        stats.put("bytes", bytes);
+        stats.put("maxBytes", maxBytes());
+        stats.put("hits", hits);
+        stats.put("revalidated", revalidated);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("hitRate", lookups == 0 ? 0D : (double) (hits + revalidated) / lookups);
+        return stats;
+    }
+
+    private long maxBytes() {
+        return maxSizeMb * 1024 * 1024;
+    }
+
+    public static class Entry {
+
+        private final Object value;
+
+        private final String etag;
+
+        private final long sizeBytes;
+
+        Entry(Object value, String etag, long sizeBytes) {
+            this.value = value;
+            this.etag = etag;
+            this.sizeBytes = sizeBytes;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T> T getValue() {
+            return (T) value;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+}
@@ -10,7 +10,11 @@ import org.gitlab4j.api.models.Project;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -25,6 +29,12 @@ public class GitLabService {
     @Autowired
     private GitLabApi gitLabApi;
 
+    @Autowired
+    private GitLabFetchClient gitLabFetchClient;
+
+    @Autowired
+    private GitLabReadCache gitLabReadCache;
+
     /**
      * 获取项目信息
      */
@@ -40,10 +50,49 @@ public class GitLabService {
     }
 
     /**
-     * 获取提交的变更文件
+     * 获取提交的变更文件，同一SHA的diff不会变化，命中缓存直接返回
      */
     public List<Diff> getCommitDiffs(Long projectId, String commitId) throws GitLabApiException {
-        return gitLabApi.getCommitsApi().getDiff(projectId.intValue(), commitId);
+        String key = commitDiffsKey(projectId, commitId);
+        GitLabReadCache.Entry cached = gitLabReadCache.get(key, false);
+        if (cached != null) {
+            return cached.getValue();
+        }
+        return cacheCommitDiffs(key, gitLabFetchClient.getCommitDiffs(projectId, commitId));
+    }
+
+    /**
+     * 并发获取多个提交的变更文件，结果按传入顺序排列；已缓存的提交不再请求
+     */
+    public Map<String, List<Diff>> getCommitDiffs(Long projectId, List<String> commitIds) throws GitLabApiException {
+        Map<String, List<Diff>> results = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String commitId : commitIds) {
+            GitLabReadCache.Entry cached = gitLabReadCache.get(commitDiffsKey(projectId, commitId), false);
+            results.put(commitId, cached == null ? null : cached.getValue());
+            if (cached == null) {
+                missing.add(commitId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, List<Diff>> fetched = gitLabFetchClient.getCommitDiffs(projectId, missing);
+            for (Map.Entry<String, List<Diff>> entry : fetched.entrySet()) {
+                results.put(entry.getKey(), cacheCommitDiffs(commitDiffsKey(projectId, entry.getKey()), entry.getValue()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 比较两个提交之间的净变更，from和to均为SHA时结果不会变化，命中缓存直接返回
+     */
+    public List<Diff> compare(Long projectId, String from, String to) throws GitLabApiException {
+        String key = "compare:" + projectId + ":" + from + ":" + to;
+        GitLabReadCache.Entry cached = gitLabReadCache.get(key, false);
+        if (cached != null) {
+            return cached.getValue();
+        }
+        return cacheCommitDiffs(key, gitLabFetchClient.compare(projectId, from, to));
     }
 
     /**
@@ -60,6 +109,56 @@ public class GitLabService {
         return gitLabApi.getMergeRequestApi().getCommits(projectId.intValue(), mergeRequestId);
     }
 
+    /**
+     * 获取合并请求的最终变更（源分支相对目标分支的净diff，每个文件一份），一次请求完成
+     */
+    public List<Diff> getMergeRequestChanges(Long projectId, Long mergeRequestId) throws GitLabApiException {
+        String key = "mr-changes:" + projectId + ":" + mergeRequestId;
+        GitLabReadCache.Entry cached = gitLabReadCache.get(key, true);
+        GitLabFetchClient.Conditional<List<Diff>> result = gitLabFetchClient.getMergeRequestChanges(
+                projectId, mergeRequestId, cached == null ? null : cached.getEtag());
+        if (cached != null) {
+            gitLabReadCache.recordRevalidation(result.isNotModified());
+            if (result.isNotModified()) {
+                return cached.getValue();
+            }
+        }
+        List<Diff> diffs = Collections.unmodifiableList(result.getValue());
+        if (result.getEtag() != null) {
+            gitLabReadCache.put(key, diffs, result.getEtag(), diffBytes(diffs));
+        }
+        return diffs;
+    }
+
+    public Map<String, Object> cacheStats() {
+        return gitLabReadCache.stats();
+    }
+
+    private List<Diff> cacheCommitDiffs(String key, List<Diff> diffs) {
+        List<Diff> immutable = Collections.unmodifiableList(diffs);
+        gitLabReadCache.put(key, immutable, null, diffBytes(immutable));
+        return immutable;
+    }
+
+    private static String commitDiffsKey(Long projectId, String commitId) {
+        return "commit-diffs:" + projectId + ":" + commitId;
+    }
+
+    /**
+     * 估算diff列表占用的内存（字符串按每字符2字节计）
+     */
+    private static long diffBytes(List<Diff> diffs) {
+        long bytes = 64;
+        for (Diff diff : diffs) {
+            bytes += 128 + 2L * (length(diff.getDiff()) + length(diff.getNewPath()) + length(diff.getOldPath()));
+        }
+        return bytes;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
     /**
      * 验证GitLab WebHook签名
      *
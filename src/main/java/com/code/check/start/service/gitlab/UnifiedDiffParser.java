@@ -0,0 +1,149 @@
+package com.code.check.start.service.gitlab;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/18 19:30
+ * @desc 单遍扫描的unified diff解析器：不拆分字符串、不使用正则，
+ * 按hunk头中的行数确定每个diff块的范围，代码行以原字符串中的起止下标回调给调用方，由调用方决定是否复制内容
+ */
+public final class UnifiedDiffParser {
+
+    private UnifiedDiffParser() {
+    }
+
+    /**
+     * 解析结果回调，行内容为 source 中 [start, end) 的部分（不含开头的 +/- 和换行符）
+     */
+    public interface LineHandler {
+
+        void added(int lineNumber, String source, int start, int end);
+
+        void removed(int lineNumber, String source, int start, int end);
+    }
+
+    /**
+     * 解析Git diff内容
+     *
+     * @param diffContent Git diff输出内容（gitlab返回的diff片段或包含文件头的完整diff）
+     * @param handler     新增/删除行的回调
+     */
+    public static void parse(String diffContent, LineHandler handler) {
+        if (diffContent == null) {
+            return;
+        }
+        int length = diffContent.length();
+        int oldLine = 0;
+        int newLine = 0;
+        int oldRemaining = 0;
+        int newRemaining = 0;
+        int[] header = new int[4];
+
+        int pos = 0;
+        while (pos < length) {
+            int end = diffContent.indexOf('\n', pos);
+            if (end < 0) {
+                end = length;
+            }
+            int next = end + 1;
+
+            if (oldRemaining > 0 || newRemaining > 0) {
+                char first = pos < end ? diffContent.charAt(pos) : ' ';
+                switch (first) {
+                    case '+':
+                        handler.added(newLine++, diffContent, pos + 1, end);
+                        newRemaining--;
+                        pos = next;
+                        continue;
+                    case '-':
+                        handler.removed(oldLine++, diffContent, pos + 1, end);
+                        oldRemaining--;
+                        pos = next;
+                        continue;
+                    case ' ':
+                        // 上下文行（部分工具会去掉空行前的空格，空行同样视为上下文行）
+                        oldLine++;
+                        newLine++;
+                        oldRemaining--;
+                        newRemaining--;
+                        pos = next;
+                        continue;
+                    case '\\':
+                        // \ No newline at end of file
+                        pos = next;
+                        continue;
+                    default:
+                        // 行数与hunk头不符，按新的头部行处理
+                        oldRemaining = 0;
+                        newRemaining = 0;
+                }
+            }
+
+            if (parseHunkHeader(diffContent, pos, end, header)) {
+                oldLine = header[0];
+                oldRemaining = header[1];
+                newLine = header[2];
+                newRemaining = header[3];
+            }
+            // 其余行（diff --git、index、---/+++ 文件头、块后的 \ No newline 等）直接跳过
+            pos = next;
+        }
+    }
+
+    /**
+     * 解析hunk头：@@ -oldStart[,oldCount] +newStart[,newCount] @@，省略行数时为1
+     *
+     * @param out 依次写入 oldStart, oldCount, newStart, newCount
+     * @return 是否为合法的hunk头
+     */
+    static boolean parseHunkHeader(String s, int start, int end, int[] out) {
+        int pos = start;
+        if (end - pos < 4 || s.charAt(pos) != '@' || s.charAt(pos + 1) != '@'
+                || s.charAt(pos + 2) != ' ' || s.charAt(pos + 3) != '-') {
+            return false;
+        }
+        pos += 4;
+        pos = parseRange(s, pos, end, out, 0);
+        if (pos < 0 || pos + 1 >= end || s.charAt(pos) != ' ' || s.charAt(pos + 1) != '+') {
+            return false;
+        }
+        pos = parseRange(s, pos + 2, end, out, 2);
+        return pos >= 0 && pos + 2 < end && s.charAt(pos) == ' ' && s.charAt(pos + 1) == '@' && s.charAt(pos + 2) == '@';
+    }
+
+    /**
+     * 解析 start[,count]，返回解析结束的位置，格式不合法时返回-1
+     */
+    private static int parseRange(String s, int pos, int end, int[] out, int index) {
+        int startEnd = parseNumber(s, pos, end, out, index);
+        if (startEnd < 0) {
+            return -1;
+        }
+        if (startEnd < end && s.charAt(startEnd) == ',') {
+            return parseNumber(s, startEnd + 1, end, out, index + 1);
+        }
+        out[index + 1] = 1;
+        return startEnd;
+    }
+
+    private static int parseNumber(String s, int pos, int end, int[] out, int index) {
+        int value = 0;
+        int digits = 0;
+        while (pos < end) {
+            char c = s.charAt(pos);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            if (value > (Integer.MAX_VALUE - 9) / 10) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+            digits++;
+            pos++;
+        }
+        if (digits == 0) {
+            return -1;
+        }
+        out[index] = value;
+        return pos;
+    }
+}
@@ -0,0 +1,355 @@
+package com.code.check.start.service.notify;
+
+import com.alibaba.fastjson.JSON;
+import com.code.check.start.model.CodeIssue;
+import com.code.check.start.model.CodeSubmission;
+import com.code.check.start.model.FileInspectionResult;
+import com.code.check.start.utils.AppendOnlyJournal;
+import com.code.check.start.utils.DateTimeUtil;
+import com.code.check.start.utils.WeChatMarkdownWriter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/20 17:40
+ * @desc 通知汇总：开启后同一项目在时间窗口内的检测结果合并为一条汇总消息发送，减少企业微信消息数量；
+ * 包含高等级问题的检测报告不进入汇总，立即单独发送。
+ * 窗口内缓存的结果写入本地追加写日志，重启后继续按原窗口发送
+ */
+@Service
+@Slf4j
+public class NotificationDigest {
+
+    private static final String OP_ADD = "ADD";
+    private static final String OP_FLUSH = "FLUSH";
+
+    @Value("${app.notify.digest.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.notify.digest.window-minutes:30}")
+    private long windowMinutes;
+
+    /**
+     * 出现该等级的问题时立即发送完整报告
+     */
+    @Value("${app.notify.digest.fast-lane-severity:高}")
+    private String fastLaneSeverity;
+
+    @Value("${app.notify.digest.journal-path:./data/notification-digest.journal}")
+    private String journalPath;
+
+    @Autowired
+    private NotificationOutbox notificationOutbox;
+
+    /**
+     * 项目ID -> 窗口内的检测结果摘要
+     */
+    private final Map<Long, ProjectDigest> digests = new LinkedHashMap<>();
+
+    private AppendOnlyJournal journal;
+
+    private ScheduledExecutorService scheduler;
+
+    private long fastLaneReports;
+
+    private long digestReports;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        journal = new AppendOnlyJournal(journalPath, false);
+        for (String line : journal.readAll()) {
+            DigestRecord record;
+            try {
+                record = JSON.parseObject(line, DigestRecord.class);
+            } catch (Exception e) {
+                log.warn("Skip corrupted digest record: {}", line);
+                continue;
+            }
+            if (OP_ADD.equals(record.getOp()) && record.getEntry() != null) {
+                digests.computeIfAbsent(record.getProjectId(), k -> new ProjectDigest(record.getProjectName(), record.getAddedAt()))
+                        .entries.add(record.getEntry());
+            } else if (OP_FLUSH.equals(record.getOp())) {
+                digests.remove(record.getProjectId());
+            }
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "notification-digest");
+            thread.setDaemon(true);
+            return thread;
+        });
+        synchronized (this) {
+            compact();
+            for (Map.Entry<Long, ProjectDigest> entry : digests.entrySet()) {
+                scheduleFlush(entry.getKey(), entry.getValue().windowStart);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * 提交检测报告：未开启汇总或包含高等级问题时立即写入发件箱，否则加入项目的汇总窗口
+     *
+     * @param report 已分段的完整单次检测报告
+     * @return 写入失败时返回false
+     */
+    public boolean submit(CodeSubmission submission, Map<String, FileInspectionResult> results, List<String> report) {
+        if (!enabled) {
+            return notificationOutbox.enqueueSegments(report, "markdown");
+        }
+        if (hasFastLaneIssue(results)) {
+            synchronized (this) {
+                fastLaneReports++;
+            }
+            return notificationOutbox.enqueueSegments(report, "markdown");
+        }
+        DigestEntry entry = toEntry(submission, results);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            try {
+                journal.append(JSON.toJSONString(new DigestRecord(OP_ADD, submission.getProjectId(),
+                        submission.getProjectName(), now, entry)));
+            } catch (IOException e) {
+                log.error("Failed to write notification digest, send report directly", e);
+                return notificationOutbox.enqueueSegments(report, "markdown");
+            }
+            ProjectDigest digest = digests.get(submission.getProjectId());
+            if (digest == null) {
+                digest = new ProjectDigest(submission.getProjectName(), now);
+                digests.put(submission.getProjectId(), digest);
+                scheduleFlush(submission.getProjectId(), now);
+            }
+            digest.entries.add(entry);
+            digestReports++;
+        }
+        return true;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("windowMinutes", windowMinutes);
+        stats.put("fastLaneReports", fastLaneReports);
+        stats.put("digestReports", digestReports);
+        Map<String, Object> projects = new LinkedHashMap<>();
+        for (Map.Entry<Long, ProjectDigest> entry : digests.entrySet()) {
+            Map<String, Object> project = new LinkedHashMap<>();
+            project.put("projectName", entry.getValue().projectName);
+            project.put("reports", entry.getValue().entries.size());
+            project.put("flushAt", entry.getValue().windowStart + TimeUnit.MINUTES.toMillis(windowMinutes));
+            projects.put(String.valueOf(entry.getKey()), project);
+        }
+        stats.put("projects", projects);
+        return stats;
+    }
+
+    private void scheduleFlush(Long projectId, long windowStart) {
+        long delay = Math.max(0L, windowStart + TimeUnit.MINUTES.toMillis(windowMinutes) - System.currentTimeMillis());
+        scheduler.schedule(() -> flush(projectId), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 窗口结束：渲染汇总消息写入发件箱，写入成功后再清除窗口
+     */
+    private synchronized void flush(Long projectId) {
+        ProjectDigest digest = digests.get(projectId);
+        if (digest == null || digest.entries.isEmpty()) {
+            digests.remove(projectId);
+            return;
+        }
+        if (!notificationOutbox.enqueueSegments(render(digest), "markdown")) {
+            log.error("Failed to enqueue digest of project {}, retry in one minute", digest.projectName);
+            scheduler.schedule(() -> flush(projectId), 1, TimeUnit.MINUTES);
+            return;
+        }
+        digests.remove(projectId);
+        try {
+            journal.append(JSON.toJSONString(new DigestRecord(OP_FLUSH, projectId, digest.projectName, 0L, null)));
+            if (digests.isEmpty()) {
+                compact();
+            }
+        } catch (IOException e) {
+            log.error("Failed to write notification digest", e);
+        }
+    }
+
+    private boolean hasFastLaneIssue(Map<String, FileInspectionResult> results) {
+        for (FileInspectionResult result : results.values()) {
+            if (result == null || result.getIssues() == null) {
+                continue;
+            }
+            for (CodeIssue issue : result.getIssues()) {
+                if (fastLaneSeverity.equals(issue.getSeverity())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 只保留汇总需要的信息：提交人、提交信息首行、每个文件的问题（等级、行号、描述），不保留修改建议和示例代码
+     */
+    private static DigestEntry toEntry(CodeSubmission submission, Map<String, FileInspectionResult> results) {
+        DigestEntry entry = new DigestEntry();
+        entry.setCommitId(submission.getCommitId());
+        entry.setAuthor(submission.getAuthor());
+        String message = submission.getMessage() == null ? "" : submission.getMessage().trim();
+        int newLine = message.indexOf('\n');
+        entry.setTitle(newLine < 0 ? message : message.substring(0, newLine));
+        Map<String, List<DigestIssue>> fileIssues = new LinkedHashMap<>();
+        for (Map.Entry<String, FileInspectionResult> result : results.entrySet()) {
+            List<DigestIssue> issues = new ArrayList<>();
+            FileInspectionResult value = result.getValue();
+            if (value != null && value.getIssues() != null) {
+                for (CodeIssue issue : value.getIssues()) {
+                    issues.add(new DigestIssue(issue.getSeverity(), issue.getLineNumber(), issue.getDescription()));
+                }
+            }
+            fileIssues.put(result.getKey(), issues);
+        }
+        entry.setFileIssues(fileIssues);
+        return entry;
+    }
+
+    /**
+     * 提交信息和每个文件的问题分别作为一块写入，文件的问题列表不会被拆到两条消息中
+     */
+    private List<String> render(ProjectDigest digest) {
+        int files = 0;
+        int issues = 0;
+        for (DigestEntry entry : digest.entries) {
+            files += entry.getFileIssues().size();
+            for (List<DigestIssue> fileIssues : entry.getFileIssues().values()) {
+                issues += fileIssues.size();
+            }
+        }
+
+        WeChatMarkdownWriter markdown = new WeChatMarkdownWriter();
+        markdown.append("### 📋【代码检查】AI检查汇总-")
+                .append(DateTimeUtil.getFormatDateTime(new Date(), DateTimeUtil.DateFormat.FORMAT_DATE_NORMAL))
+                .append("\n\n");
+        markdown.append("**项目：**").appendEscaped(digest.projectName).append("\n");
+        markdown.append("**汇总时长：**").append(windowMinutes).append("分钟\n");
+        markdown.append("**提交数：**").append(digest.entries.size()).append("\n");
+        markdown.append("**检查文件数：**").append(files).append("\n");
+        markdown.append("**问题数：**").append(issues).append("\n\n");
+        markdown.endBlock();
+
+        for (DigestEntry entry : digest.entries) {
+            String commitId = entry.getCommitId() == null ? "" : entry.getCommitId();
+            markdown.append("#### ").append(commitId.substring(0, Math.min(8, commitId.length()))).append(" ")
+                    .appendEscaped(entry.getAuthor()).append("：")
+                    .appendEscaped(entry.getTitle()).append("\n");
+            markdown.endBlock();
+            for (Map.Entry<String, List<DigestIssue>> file : entry.getFileIssues().entrySet()) {
+                List<DigestIssue> fileIssues = file.getValue();
+                markdown.append("> ").appendEscaped(file.getKey())
+                        .append("：").append(fileIssues.isEmpty() ? "✅ 无问题" : fileIssues.size() + "个问题").append("\n");
+                for (DigestIssue issue : fileIssues) {
+                    markdown.append("- 【").appendEscaped(issue.getSeverity()).append("】")
+                            .append(issue.getLineNumber() != null && issue.getLineNumber() > 0
+                                    ? "第" + issue.getLineNumber() + "行：" : "")
+                            .appendEscaped(issue.getDescription()).append("\n");
+                }
+                markdown.endBlock();
+            }
+            markdown.append("\n");
+            markdown.endBlock();
+        }
+        return markdown.toSegments();
+    }
+
+    private void compact() {
+        List<String> records = new ArrayList<>();
+        for (Map.Entry<Long, ProjectDigest> digest : digests.entrySet()) {
+            for (DigestEntry entry : digest.getValue().entries) {
+                records.add(JSON.toJSONString(new DigestRecord(OP_ADD, digest.getKey(), digest.getValue().projectName,
+                        digest.getValue().windowStart, entry)));
+            }
+        }
+        try {
+            journal.rewrite(records);
+        } catch (IOException e) {
+            log.error("Failed to compact notification digest", e);
+        }
+    }
+
+    private static class ProjectDigest {
+
+        final String projectName;
+
+        /**
+         * 窗口开始时间，即窗口内第一份报告的时间
+         */
+        final long windowStart;
+
+        final List<DigestEntry> entries = new ArrayList<>();
+
+        ProjectDigest(String projectName, long windowStart) {
+            this.projectName = projectName;
+            this.windowStart = windowStart;
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    public static class DigestEntry {
+        private String commitId;
+        private String author;
+        private String title;
+        /**
+         * 文件路径 -> 问题列表
+         */
+        private Map<String, List<DigestIssue>> fileIssues;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class DigestIssue {
+        private String severity;
+        private Integer lineNumber;
+        private String description;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class DigestRecord {
+        private String op;
+        private Long projectId;
+        private String projectName;
+        private long addedAt;
+        private DigestEntry entry;
+    }
+}
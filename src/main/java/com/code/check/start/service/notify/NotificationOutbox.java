@@ -0,0 +1,402 @@
+package com.code.check.start.service.notify;
+
+import com.alibaba.fastjson.JSON;
+import com.code.check.start.utils.AppendOnlyJournal;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/20 14:20
+ * @desc 通知发件箱：检测完成的报告先拆分并写入本地追加写日志再返回，由后台投递线程发送到企业微信。
+ * 发送失败按指数退避重试，只重发尚未成功的分段；超过最大重试次数后转入死信日志，可通过管理接口重新投递。
+ * 检测线程只负责写入发件箱，不受通知发送快慢影响，通知失败也不需要重新调用大模型
+ */
+@Service
+@Slf4j
+public class NotificationOutbox {
+
+    private static final String OP_ENQUEUE = "ENQ";
+    private static final String OP_PROGRESS = "PROGRESS";
+    private static final String OP_DONE = "DONE";
+    private static final String OP_DEAD = "DEAD";
+
+    @Value("${app.notify.outbox.journal-path:./data/notification-outbox.journal}")
+    private String journalPath;
+
+    @Value("${app.notify.outbox.dead-letter-path:./data/notification-dead-letter.journal}")
+    private String deadLetterPath;
+
+    @Value("${app.notify.outbox.max-attempts:8}")
+    private int maxAttempts;
+
+    @Value("${app.notify.outbox.initial-backoff-seconds:5}")
+    private long initialBackoffSeconds;
+
+    @Value("${app.notify.outbox.max-backoff-seconds:600}")
+    private long maxBackoffSeconds;
+
+    /**
+     * 单次投递等待发送结果的最长时间（单位：秒），需大于限流排队时间
+     */
+    @Value("${app.notify.outbox.send-timeout-seconds:300}")
+    private long sendTimeoutSeconds;
+
+    @Value("${app.notify.outbox.compact-threshold:200}")
+    private int compactThreshold;
+
+    @Autowired
+    private WeChatNotificationService weChatNotificationService;
+
+    /**
+     * 待投递的消息，按入箱顺序
+     */
+    private final Map<String, OutboxMessage> messages = new LinkedHashMap<>();
+
+    /**
+     * 等待超时但仍在企业微信发送线程中进行的发送
+     */
+    private final Map<String, CompletableFuture<Integer>> inFlight = new ConcurrentHashMap<>();
+
+    private AppendOnlyJournal journal;
+
+    private AppendOnlyJournal deadLetters;
+
+    private ScheduledExecutorService dispatcher;
+
+    private int writesSinceCompact;
+
+    private long delivered;
+
+    private long retried;
+
+    private long deadLettered;
+
+    @PostConstruct
+    public void init() throws IOException {
+        journal = new AppendOnlyJournal(journalPath, false);
+        deadLetters = new AppendOnlyJournal(deadLetterPath, false);
+        for (String line : journal.readAll()) {
+            OutboxRecord record;
+            try {
+                record = JSON.parseObject(line, OutboxRecord.class);
+            } catch (Exception e) {
+                log.warn("Skip corrupted outbox record: {}", line);
+                continue;
+            }
+            if (OP_ENQUEUE.equals(record.getOp()) && record.getMessage() != null) {
+                messages.put(record.getId(), record.getMessage());
+            } else if (OP_PROGRESS.equals(record.getOp()) && messages.containsKey(record.getId())) {
+                OutboxMessage message = messages.get(record.getId());
+                message.setSentSegments(record.getSentSegments());
+                message.setAttempts(record.getAttempts());
+                message.setNextAttemptAt(record.getNextAttemptAt());
+            } else if (OP_DONE.equals(record.getOp()) || OP_DEAD.equals(record.getOp())) {
+                messages.remove(record.getId());
+            }
+        }
+        synchronized (this) {
+            compact();
+        }
+        if (!messages.isEmpty()) {
+            log.info("Recovered {} undelivered notifications from outbox {}", messages.size(), journal.getPath());
+        }
+
+        dispatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "notification-outbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dispatcher.scheduleWithFixedDelay(this::dispatchDue, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if (dispatcher != null) {
+            dispatcher.shutdownNow();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        if (deadLetters != null) {
+            deadLetters.close();
+        }
+    }
+
+    /**
+     * 报告写入发件箱，写入日志后即返回
+     *
+     * @param msgType 消息类型，"text" 或 "markdown"
+     * @return 写入日志失败时返回false
+     */
+    public boolean enqueue(String content, String msgType) {
+        return enqueueSegments(WeChatNotificationService.split(content, msgType), msgType);
+    }
+
+    /**
+     * 已按企业微信长度限制分好段的消息写入发件箱
+     *
+     * @return 写入日志失败时返回false
+     */
+    public boolean enqueueSegments(List<String> segments, String msgType) {
+        OutboxMessage message = new OutboxMessage();
+        message.setId(UUID.randomUUID().toString());
+        message.setMsgType(msgType);
+        message.setSegments(segments);
+        message.setCreatedAt(System.currentTimeMillis());
+        synchronized (this) {
+            try {
+                append(new OutboxRecord(OP_ENQUEUE, message.getId(), message, 0, 0, 0L, null));
+            } catch (IOException e) {
+                log.error("Failed to write notification outbox", e);
+                return false;
+            }
+            messages.put(message.getId(), message);
+        }
+        dispatcher.execute(this::dispatchDue);
+        return true;
+    }
+
+    /**
+     * 死信重新投递：重置重试次数后放回发件箱，已发送成功的分段不再重发
+     *
+     * @return 死信不存在时返回false
+     */
+    public boolean redeliver(String id) throws IOException {
+        synchronized (this) {
+            OutboxMessage message = null;
+            List<String> remaining = new ArrayList<>();
+            for (OutboxMessage deadLetter : readDeadLetters()) {
+                if (deadLetter.getId().equals(id)) {
+                    message = deadLetter;
+                } else {
+                    remaining.add(JSON.toJSONString(deadLetter));
+                }
+            }
+            if (message == null) {
+                return false;
+            }
+            message.setAttempts(0);
+            message.setNextAttemptAt(0L);
+            append(new OutboxRecord(OP_ENQUEUE, id, message, message.getSentSegments(), 0, 0L, null));
+            messages.put(id, message);
+            deadLetters.rewrite(remaining);
+        }
+        dispatcher.execute(this::dispatchDue);
+        return true;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", messages.size());
+        stats.put("inFlight", inFlight.size());
+        stats.put("delivered", delivered);
+        stats.put("retried", retried);
+        stats.put("deadLettered", deadLettered);
+        List<Map<String, Object>> items = new ArrayList<>(messages.size());
+        for (OutboxMessage message : messages.values()) {
+            items.add(summary(message));
+        }
+        stats.put("items", items);
+        return stats;
+    }
+
+    /**
+     * 死信列表（不含消息内容）
+     */
+    public List<Map<String, Object>> deadLetterList() throws IOException {
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (OutboxMessage message : readDeadLetters()) {
+            list.add(summary(message));
+        }
+        return list;
+    }
+
+    /**
+     * 依次投递到期的消息，只在投递线程中执行
+     */
+    private void dispatchDue() {
+        List<OutboxMessage> due = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (OutboxMessage message : messages.values()) {
+                if (message.getNextAttemptAt() <= now) {
+                    due.add(message);
+                }
+            }
+        }
+        for (OutboxMessage message : due) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            deliver(message);
+        }
+    }
+
+    /**
+     * 投递消息。等待超时的发送不会被取消，仍在发送线程中继续，此时不记录失败也不重发，
+     * 之后的投递等这次发送结束后按它实际发送成功的分段数记录进度，避免重复发送
+     */
+    private void deliver(OutboxMessage message) {
+        List<String> segments = message.getSegments();
+        int sentSegments = message.getSentSegments();
+        CompletableFuture<Integer> sending = inFlight.get(message.getId());
+        if (sending == null) {
+            sending = weChatNotificationService.sendSegments(segments.subList(sentSegments, segments.size()), message.getMsgType());
+        } else if (!sending.isDone()) {
+            return;
+        }
+        String error = null;
+        try {
+            sentSegments += sending.get(sendTimeoutSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            inFlight.put(message.getId(), sending);
+            Thread.currentThread().interrupt();
+            return;
+        } catch (TimeoutException e) {
+            log.warn("Notification {} is still being sent after {} seconds, wait for it before retrying",
+                    message.getId(), sendTimeoutSeconds);
+            inFlight.put(message.getId(), sending);
+            return;
+        } catch (ExecutionException e) {
+            error = e.toString();
+        }
+        inFlight.remove(message.getId());
+
+        synchronized (this) {
+            try {
+                if (sentSegments >= segments.size()) {
+                    append(new OutboxRecord(OP_DONE, message.getId(), null, sentSegments, message.getAttempts(), 0L, null));
+                    messages.remove(message.getId());
+                    delivered++;
+                    return;
+                }
+                int attempts = message.getAttempts() + 1;
+                message.setSentSegments(sentSegments);
+                message.setAttempts(attempts);
+                message.setLastError(error == null ? "第" + (sentSegments + 1) + "段发送失败" : error);
+                if (attempts >= maxAttempts) {
+                    log.error("Notification {} failed after {} attempts, move to dead letter", message.getId(), attempts);
+                    deadLetters.append(JSON.toJSONString(message));
+                    append(new OutboxRecord(OP_DEAD, message.getId(), null, sentSegments, attempts, 0L, message.getLastError()));
+                    messages.remove(message.getId());
+                    deadLettered++;
+                    return;
+                }
+                message.setNextAttemptAt(System.currentTimeMillis() + backoffMillis(attempts));
+                log.warn("Notification {} failed ({}), retry #{} at {}", message.getId(), message.getLastError(),
+                        attempts, message.getNextAttemptAt());
+                append(new OutboxRecord(OP_PROGRESS, message.getId(), null, sentSegments, attempts,
+                        message.getNextAttemptAt(), message.getLastError()));
+                retried++;
+            } catch (IOException e) {
+                log.error("Failed to write notification outbox", e);
+            }
+        }
+    }
+
+    /**
+     * 第n次失败后的等待时间：initial * 2^(n-1)，不超过上限
+     */
+    private long backoffMillis(int attempts) {
+        long seconds = initialBackoffSeconds << Math.min(attempts - 1, 30);
+        return TimeUnit.SECONDS.toMillis(Math.min(seconds, maxBackoffSeconds));
+    }
+
+    private void append(OutboxRecord record) throws IOException {
+        journal.append(JSON.toJSONString(record));
+        if (++writesSinceCompact >= compactThreshold) {
+            compact();
+        }
+    }
+
+    /**
+     * 仅保留待投递消息的当前状态
+     */
+    private void compact() {
+        List<String> records = new ArrayList<>(messages.size());
+        for (OutboxMessage message : messages.values()) {
+            records.add(JSON.toJSONString(new OutboxRecord(OP_ENQUEUE, message.getId(), message, 0, 0, 0L, null)));
+        }
+        try {
+            journal.rewrite(records);
+            writesSinceCompact = 0;
+        } catch (IOException e) {
+            log.error("Failed to compact notification outbox", e);
+        }
+    }
+
+    private List<OutboxMessage> readDeadLetters() throws IOException {
+        List<OutboxMessage> list = new ArrayList<>();
+        for (String line : deadLetters.readAll()) {
+            try {
+                list.add(JSON.parseObject(line, OutboxMessage.class));
+            } catch (Exception e) {
+                log.warn("Skip corrupted dead letter: {}", line);
+            }
+        }
+        return list;
+    }
+
+    private static Map<String, Object> summary(OutboxMessage message) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("id", message.getId());
+        summary.put("createdAt", message.getCreatedAt());
+        summary.put("segments", message.getSegments() == null ? 0 : message.getSegments().size());
+        summary.put("sentSegments", message.getSentSegments());
+        summary.put("attempts", message.getAttempts());
+        summary.put("nextAttemptAt", message.getNextAttemptAt());
+        summary.put("lastError", message.getLastError());
+        return summary;
+    }
+
+    @Data
+    @NoArgsConstructor
+    public static class OutboxMessage {
+        private String id;
+        private String msgType;
+        private List<String> segments;
+        /**
+         * 已成功发送的分段数，重试时从下一段开始
+         */
+        private int sentSegments;
+        private int attempts;
+        private long nextAttemptAt;
+        private long createdAt;
+        private String lastError;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class OutboxRecord {
+        private String op;
+        private String id;
+        private OutboxMessage message;
+        private int sentSegments;
+        private int attempts;
+        private long nextAttemptAt;
+        private String lastError;
+    }
+}
@@ -0,0 +1,80 @@
+package com.code.check.start.service.notify;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/20 10:05
+ * @desc 令牌桶限流：容量为capacity，每refillPeriodMillis毫秒补满capacity个令牌（按时间均匀补充）
+ */
+public class TokenBucket {
+
+    private final int capacity;
+
+    private final double tokensPerMilli;
+
+    private double tokens;
+
+    private long lastRefillAt;
+
+    /**
+     * 在此之前不发放令牌（服务端提示超频时使用）
+     */
+    private long pausedUntil;
+
+    public TokenBucket(int capacity, long refillPeriodMillis) {
+        this.capacity = Math.max(1, capacity);
+        this.tokensPerMilli = (double) this.capacity / Math.max(1, refillPeriodMillis);
+        this.tokens = this.capacity;
+        this.lastRefillAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 获取一个令牌，没有令牌时阻塞到有令牌为止
+     */
+    public void acquire() throws InterruptedException {
+        long waitMillis;
+        while ((waitMillis = tryAcquire()) > 0) {
+            TimeUnit.MILLISECONDS.sleep(waitMillis);
+        }
+    }
+
+    /**
+     * 尝试获取一个令牌
+     *
+     * @return 获取成功返回0，否则返回预计需要等待的毫秒数
+     */
+    public synchronized long tryAcquire() {
+        long now = System.currentTimeMillis();
+        if (now < pausedUntil) {
+            return pausedUntil - now;
+        }
+        refill(now);
+        if (tokens >= 1D) {
+            tokens -= 1D;
+            return 0L;
+        }
+        return Math.max(1L, (long) Math.ceil((1D - tokens) / tokensPerMilli));
+    }
+
+    /**
+     * 清空令牌并暂停发放到指定时间
+     */
+    public synchronized void pauseUntil(long timestamp) {
+        tokens = 0D;
+        pausedUntil = Math.max(pausedUntil, timestamp);
+        lastRefillAt = Math.max(lastRefillAt, timestamp);
+    }
+
+    public synchronized double available() {
+        refill(System.currentTimeMillis());
+        return tokens;
+    }
+
+    private void refill(long now) {
+        if (now > lastRefillAt) {
+            tokens = Math.min(capacity, tokens + (now - lastRefillAt) * tokensPerMilli);
+            lastRefillAt = now;
+        }
+    }
+}
@@ -1,118 +1,242 @@
 package com.code.check.start.service.notify;
 
 import com.code.check.start.utils.WeChatMessageSplitter;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @Author yueyue.guan
  * @date 2025/8/21 15:28
- * @desc
+ * @desc 企业微信机器人通知：单例，共用一个带连接池的OkHttpClient；
+ * 消息由单个发送线程异步发送（保证分段顺序），按机器人每分钟的发送上限用令牌桶限流，调用方不会被阻塞
  */
+@Service
 @Slf4j
 public class WeChatNotificationService {
 
-    private final String webhookUrl;
-    private final OkHttpClient httpClient;
+    /**
+     * 机器人发送频率超限的错误码
+     */
+    private static final int ERRCODE_FREQ_OUT_OF_LIMIT = 45009;
 
-    public WeChatNotificationService(String webhookUrl) {
-        this.webhookUrl = webhookUrl;
-        this.httpClient = new OkHttpClient();
-    }
+    private static final MediaType JSON_MEDIA_TYPE = MediaType.parse("application/json; charset=utf-8");
+
+    @Value("${wechat.webhook-url}")
+    private String webhookUrl;
 
     /**
-     * 发送文本消息到企业微信
-     * @param content 消息内容
-     * @param msgType 消息类型，可以是 "text" 或 "markdown"
-     * @return 是否发送成功
+     * 每个机器人每分钟最多发送的消息数（企业微信限制为20条）
      */
-    public boolean sendMessage(String content, String msgType) {
-        boolean isMarkdown = "markdown".equals(msgType);
-        List<String> strings = WeChatMessageSplitter.splitMessage(content, isMarkdown);
-        boolean sendRe = true;
+    @Value("${wechat.rate-limit-per-minute:20}")
+    private int rateLimitPerMinute;
 
-        ObjectMapper objectMapper = new ObjectMapper();
+    @Value("${wechat.connect-timeout-millis:5000}")
+    private long connectTimeoutMillis;
 
-        for (String thisStr : strings) {
-            try {
-                // 构建JSON对象
-                Map<String, Object> messageMap = new HashMap<>();
-                Map<String, String> contentMap = new HashMap<>();
+    @Value("${wechat.read-timeout-millis:10000}")
+    private long readTimeoutMillis;
 
-                contentMap.put("content", thisStr);
-                messageMap.put(msgType, contentMap);
-                messageMap.put("msgtype", msgType);
+    @Autowired
+    private ObjectMapper objectMapper;
 
-                // 转换为JSON字符串
-                String jsonBody = objectMapper.writeValueAsString(messageMap);
+    private OkHttpClient httpClient;
 
-                RequestBody body = RequestBody.create(
-                        jsonBody,
-                        MediaType.parse("application/json; charset=utf-8")
-                );
+    private ExecutorService sendExecutor;
 
-                Request request = new Request.Builder()
-                        .url(webhookUrl)
-                        .header("Accept", "application/json")
-                        .header("Content-Type", "application/json")
-                        .post(body)
-                        .build();
+    /**
+     * 每个机器人地址一个令牌桶，只在发送线程中访问
+     */
+    private final Map<String, TokenBucket> buckets = new HashMap<>();
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong pending = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        httpClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(2, 5, TimeUnit.MINUTES))
+                .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+        sendExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "wechat-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 
-                log.info("Sending message to WeChat: {}", jsonBody);
+    @PreDestroy
+    public void destroy() {
+        sendExecutor.shutdown();
+        try {
+            if (!sendExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                sendExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            sendExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        httpClient.dispatcher().executorService().shutdown();
+        httpClient.connectionPool().evictAll();
+    }
 
-                try (Response response = httpClient.newCall(request).execute()) {
-                    log.info("Sending message Response: {}", response.body().string());
-                    if (response.isSuccessful()) {
-                        log.info("Message sent successfully");
-                    } else {
-                        String responseBody = response.body() != null ? response.body().string() : "null";
-                        log.error("Send failed: {}, response: {}", response.code(), responseBody);
-                        sendRe = false;
-                    }
-                }
+    /**
+     * 异步发送消息到企业微信，超长内容按分段依次发送
+     *
+     * @param content 消息内容
+     * @param msgType 消息类型，可以是 "text" 或 "markdown"
+     * @return 所有分段发送完成后返回是否全部成功
+     */
+    public CompletableFuture<Boolean> sendMessage(String content, String msgType) {
+        List<String> segments = split(content, msgType);
+        return sendSegments(segments, msgType).thenApply(sentCount -> sentCount == segments.size());
+    }
 
-                Thread.sleep(5000L);
+    /**
+     * 按企业微信单条消息的长度限制拆分内容
+     */
+    public static List<String> split(String content, String msgType) {
+        return WeChatMessageSplitter.splitMessage(content, "markdown".equals(msgType));
+    }
 
-            } catch (Exception e) {
-                log.error("Error sending message", e);
-                sendRe = false;
-            }
+    /**
+     * 异步依次发送已拆分的分段，某一段失败后不再发送后续分段，保证接收方看到的顺序
+     *
+     * @return 从第一段开始连续发送成功的分段数
+     */
+    public CompletableFuture<Integer> sendSegments(List<String> segments, String msgType) {
+        pending.addAndGet(segments.size());
+        try {
+            return CompletableFuture.supplyAsync(() -> sendInOrder(webhookUrl, segments, msgType), sendExecutor);
+        } catch (RejectedExecutionException e) {
+            pending.addAndGet(-segments.size());
+            log.error("WeChat sender has been shut down, drop message");
+            return CompletableFuture.completedFuture(0);
         }
-        return sendRe;
     }
 
     /**
      * 发送文本消息的便捷方法
+     *
      * @param content 消息内容
-     * @return 是否发送成功
      */
-    public boolean sendTextMessage(String content) {
+    public CompletableFuture<Boolean> sendTextMessage(String content) {
         return sendMessage(content, "text");
     }
 
     /**
      * 发送markdown消息的便捷方法
+     *
      * @param content markdown格式内容
-     * @return 是否发送成功
      */
-    public boolean sendMarkdownMessage(String content) {
+    public CompletableFuture<Boolean> sendMarkdownMessage(String content) {
         return sendMessage(content, "markdown");
     }
 
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("rateLimitPerMinute", rateLimitPerMinute);
+        stats.put("pendingSegments", pending.get());
+        stats.put("sent", sent.get());
+        stats.put("failed", failed.get());
+        stats.put("throttled", throttled.get());
+        return stats;
+    }
 
-    public static void main(String[] args) {
-        // 初始化服务
-        String webhookUrl = "https://qyapi.weixin.qq.com/cgi-bin/webhook/send?key=xxxxx";
-        WeChatNotificationService service = new WeChatNotificationService(webhookUrl);
-        // 发送文本消息
-        service.sendTextMessage("Hello, this is a test message.");
+    private int sendInOrder(String url, List<String> segments, String msgType) {
+        TokenBucket bucket = buckets.computeIfAbsent(url, k -> new TokenBucket(rateLimitPerMinute, TimeUnit.MINUTES.toMillis(1)));
+        int sentCount = 0;
+        try {
+            for (String segment : segments) {
+                if (!sendSegment(url, bucket, segment, msgType)) {
+                    break;
+                }
+                sentCount++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pending.addAndGet(-segments.size());
+        }
+        return sentCount;
     }
 
+    /**
+     * 发送单个分段，服务端提示超频时暂停令牌发放一分钟后重试一次
+     */
+    private boolean sendSegment(String url, TokenBucket bucket, String segment, String msgType) throws InterruptedException {
+        Map<String, Object> messageMap = new HashMap<>();
+        Map<String, String> contentMap = new HashMap<>();
+        contentMap.put("content", segment);
+        messageMap.put(msgType, contentMap);
+        messageMap.put("msgtype", msgType);
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            bucket.acquire();
+            try {
+                String jsonBody = objectMapper.writeValueAsString(messageMap);
+                Request request = new Request.Builder()
+                        .url(url)
+                        .header("Accept", "application/json")
+                        .post(RequestBody.create(jsonBody, JSON_MEDIA_TYPE))
+                        .build();
+                log.info("Sending message to WeChat: {}", jsonBody);
 
+                try (Response response = httpClient.newCall(request).execute()) {
+                    String responseBody = response.body() != null ? response.body().string() : "";
+                    log.info("Sending message Response: {}", responseBody);
+                    int errcode = errcode(responseBody);
+                    if (response.isSuccessful() && errcode == 0) {
+                        sent.incrementAndGet();
+                        return true;
+                    }
+                    if (errcode == ERRCODE_FREQ_OUT_OF_LIMIT || response.code() == 429) {
+                        throttled.incrementAndGet();
+                        log.warn("WeChat rate limit exceeded, pause sending for one minute");
+                        bucket.pauseUntil(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1));
+                        continue;
+                    }
+                    log.error("Send failed: {}, response: {}", response.code(), responseBody);
+                    break;
+                }
+            } catch (Exception e) {
+                log.error("Error sending message", e);
+                break;
+            }
+        }
+        failed.incrementAndGet();
+        return false;
+    }
 
+    /**
+     * 企业微信在HTTP 200中通过errcode返回业务错误，解析失败按成功处理
+     */
+    private int errcode(String responseBody) {
+        try {
+            JsonNode node = objectMapper.readTree(responseBody);
+            return node == null ? 0 : node.path("errcode").asInt(0);
+        } catch (Exception e) {
+            return 0;
+        }
+    }
 }
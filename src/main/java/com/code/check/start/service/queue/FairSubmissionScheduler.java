@@ -0,0 +1,250 @@
+package com.code.check.start.service.queue;
+
+import com.code.check.start.model.CodeSubmission;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/19 19:10
+ * @desc 待检测提交的公平调度队列：合并请求优先于普通推送；同一优先级内按项目做加权公平排队（WFQ），
+ * 每个提交入队时按所属项目的权重计算虚拟完成时间，出队时取虚拟完成时间最小的项目队首，
+ * 提交很多的项目只会推高自己的虚拟时间，不会长期占满检测线程。
+ * 入队时可指定最早可执行时间（静默期），未到时间的提交不会被取出。
+ * 同一项目内保持入队顺序，并按项目统计排队等待时间
+ */
+public class FairSubmissionScheduler {
+
+    /**
+     * 优先级从高到低
+     */
+    private static final int PRIORITY_MERGE_REQUEST = 0;
+    private static final int PRIORITY_PUSH = 1;
+    private static final int PRIORITY_LEVELS = 2;
+
+    private final int capacity;
+
+    private final Map<Long, Double> projectWeights;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition changed = lock.newCondition();
+
+    /**
+     * 每个优先级下按项目划分的队列，项目队列为空时移除
+     */
+    private final List<Map<Long, ProjectQueue>> levels = new ArrayList<>(PRIORITY_LEVELS);
+
+    /**
+     * 每个优先级的系统虚拟时间，即最近一次出队提交的虚拟完成时间
+     */
+    private final double[] virtualTime = new double[PRIORITY_LEVELS];
+
+    private final Map<Long, ProjectStats> stats = new LinkedHashMap<>();
+
+    private int size;
+
+    /**
+     * @param projectWeights 项目权重，未配置的项目权重为1
+     */
+    public FairSubmissionScheduler(int capacity, Map<Long, Double> projectWeights) {
+        this.capacity = capacity;
+        this.projectWeights = projectWeights;
+        for (int i = 0; i < PRIORITY_LEVELS; i++) {
+            levels.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * 入队，队列已满时返回false
+     *
+     * @param readyAt 最早可执行时间戳（毫秒），0表示立即可执行
+     */
+    public boolean offer(CodeSubmission submission, long readyAt) {
+        lock.lock();
+        try {
+            if (size >= capacity) {
+                return false;
+            }
+            enqueue(submission, readyAt);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 放回之前已入队过的提交（如额度重置后恢复执行的提交），不受容量限制，立即可执行
+     */
+    public void requeue(CodeSubmission submission) {
+        lock.lock();
+        try {
+            enqueue(submission, 0L);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(CodeSubmission submission, long readyAt) {
+        int priority = priorityOf(submission);
+        Long projectId = submission.getProjectId();
+        ProjectQueue queue = levels.get(priority).computeIfAbsent(projectId, k -> new ProjectQueue());
+        // 空闲后重新入队的项目从当前虚拟时间开始，不能用空闲期间积累的额度插队
+        double start = Math.max(virtualTime[priority], queue.lastFinish);
+        queue.lastFinish = start + 1D / weightOf(projectId);
+        queue.entries.addLast(new Entry(submission, queue.lastFinish, System.currentTimeMillis(), readyAt));
+        size++;
+        statsOf(projectId).queued++;
+        changed.signalAll();
+    }
+
+    /**
+     * 取出下一个可执行的提交，没有可执行的提交时阻塞等待
+     */
+    public CodeSubmission take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+                long nextReadyAt = Long.MAX_VALUE;
+                for (int priority = 0; priority < PRIORITY_LEVELS; priority++) {
+                    Long selected = null;
+                    Entry head = null;
+                    for (Map.Entry<Long, ProjectQueue> candidate : levels.get(priority).entrySet()) {
+                        Entry entry = candidate.getValue().entries.peekFirst();
+                        if (entry.readyAt > now) {
+                            nextReadyAt = Math.min(nextReadyAt, entry.readyAt);
+                        } else if (head == null || entry.finishTag < head.finishTag) {
+                            selected = candidate.getKey();
+                            head = entry;
+                        }
+                    }
+                    if (head != null) {
+                        return dispatch(priority, selected, now);
+                    }
+                }
+                if (nextReadyAt == Long.MAX_VALUE) {
+                    changed.await();
+                } else {
+                    changed.await(nextReadyAt - now, TimeUnit.MILLISECONDS);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按项目统计排队情况
+     */
+    public Map<String, Object> stats() {
+        lock.lock();
+        try {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("capacity", capacity);
+            result.put("size", size);
+            Map<String, Object> projects = new LinkedHashMap<>();
+            for (Map.Entry<Long, ProjectStats> entry : stats.entrySet()) {
+                ProjectStats projectStats = entry.getValue();
+                Map<String, Object> project = new LinkedHashMap<>();
+                project.put("weight", weightOf(entry.getKey()));
+                project.put("queued", projectStats.queued);
+                project.put("dispatched", projectStats.dispatched);
+                project.put("avgWaitMs", projectStats.dispatched == 0 ? 0 : projectStats.totalWaitMs / projectStats.dispatched);
+                project.put("maxWaitMs", projectStats.maxWaitMs);
+                project.put("lastWaitMs", projectStats.lastWaitMs);
+                projects.put(String.valueOf(entry.getKey()), project);
+            }
+            result.put("projects", projects);
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private CodeSubmission dispatch(int priority, Long projectId, long now) {
+        Map<Long, ProjectQueue> level = levels.get(priority);
+        ProjectQueue queue = level.get(projectId);
+        Entry entry = queue.entries.pollFirst();
+        if (queue.entries.isEmpty()) {
+            level.remove(projectId);
+        }
+        virtualTime[priority] = Math.max(virtualTime[priority], entry.finishTag);
+        size--;
+
+        ProjectStats projectStats = statsOf(projectId);
+        long waitMs = now - entry.enqueuedAt;
+        projectStats.queued--;
+        projectStats.dispatched++;
+        projectStats.totalWaitMs += waitMs;
+        projectStats.maxWaitMs = Math.max(projectStats.maxWaitMs, waitMs);
+        projectStats.lastWaitMs = waitMs;
+        return entry.submission;
+    }
+
+    private static int priorityOf(CodeSubmission submission) {
+        return submission.getType() == CodeSubmission.SubmissionType.MERGE_REQUEST ? PRIORITY_MERGE_REQUEST : PRIORITY_PUSH;
+    }
+
+    private double weightOf(Long projectId) {
+        Double weight = projectWeights.get(projectId);
+        return weight == null || weight <= 0 ? 1D : weight;
+    }
+
+    private ProjectStats statsOf(Long projectId) {
+        return stats.computeIfAbsent(projectId, k -> new ProjectStats());
+    }
+
+    private static class Entry {
+
+        final CodeSubmission submission;
+
+        /**
+         * 虚拟完成时间，越小越先出队
+         */
+        final double finishTag;
+
+        final long enqueuedAt;
+
+        final long readyAt;
+
+        Entry(CodeSubmission submission, double finishTag, long enqueuedAt, long readyAt) {
+            this.submission = submission;
+            this.finishTag = finishTag;
+            this.enqueuedAt = enqueuedAt;
+            this.readyAt = readyAt;
+        }
+    }
+
+    private static class ProjectQueue {
+
+        final ArrayDeque<Entry> entries = new ArrayDeque<>();
+
+        double lastFinish;
+    }
+
+    private static class ProjectStats {
+        int queued;
+        long dispatched;
+        long totalWaitMs;
+        long maxWaitMs;
+        long lastWaitMs;
+    }
+}
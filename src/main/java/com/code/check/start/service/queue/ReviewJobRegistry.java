@@ -0,0 +1,304 @@
+package com.code.check.start.service.queue;
+
+import com.code.check.start.event.gitlab.GitlabPushEventListener;
+import com.code.check.start.model.CodeSubmission;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/19 15:20
+ * @desc 审查任务登记表：按（项目，分支/合并请求）跟踪排队中和执行中的任务。
+ * 同一分支有新的提交入队时，旧任务被取代：排队中的任务出队后直接跳过，执行中的任务中断工作线程并丢弃结果，
+ * 旧任务的审查范围（推送前SHA和提交列表）合并到新任务中，由新任务按before..after一次审查；
+ * 提交入队后经过静默期才会出队，静默期内又有新提交则旧任务不再执行，只让最新的状态占用大模型资源
+ */
+@Component
+@Slf4j
+public class ReviewJobRegistry {
+
+    public enum JobState {
+        QUEUED, RUNNING, CANCELLED
+    }
+
+    @Value("${app.queue.supersede.enabled:true}")
+    private boolean supersedeEnabled;
+
+    /**
+     * 静默期（单位：秒），0表示不等待
+     */
+    @Value("${app.queue.quiet-period-seconds:10}")
+    private long quietPeriodSeconds;
+
+    private final Object lock = new Object();
+
+    /**
+     * 未结束的任务，按入队顺序
+     */
+    private final Map<String, ReviewJob> jobs = new LinkedHashMap<>();
+
+    private long superseded;
+
+    private long cancelledByAdmin;
+
+    /**
+     * 登记新入队的提交，同一分支/合并请求下更早的任务被取代，推送任务的审查范围合并到新提交中
+     */
+    public void register(CodeSubmission submission) {
+        synchronized (lock) {
+            register(submission, absorbSuperseded(submission));
+        }
+    }
+
+    /**
+     * 把同一分支/合并请求下可被取代的任务的审查范围合并到新提交中，只修改新提交，不取消旧任务；
+     * 调用方持久化新提交后再调用{@link #register(CodeSubmission, List)}取消旧任务，持久化失败时旧任务不受影响
+     *
+     * @return 被取代的任务ID
+     */
+    public List<String> absorbSuperseded(CodeSubmission submission) {
+        List<String> supersededJobIds = new ArrayList<>();
+        String key = jobKey(submission);
+        if (!supersedeEnabled || key == null) {
+            return supersededJobIds;
+        }
+        synchronized (lock) {
+            for (ReviewJob previous : jobs.values()) {
+                if (key.equals(previous.key) && previous.state != JobState.CANCELLED
+                        && absorb(submission, previous.submission)) {
+                    supersededJobIds.add(previous.jobId);
+                }
+            }
+        }
+        return supersededJobIds;
+    }
+
+    /**
+     * 登记新提交并取消被它取代的任务（期间已结束的任务不再处理）
+     */
+    public void register(CodeSubmission submission, List<String> supersededJobIds) {
+        synchronized (lock) {
+            for (String jobId : supersededJobIds) {
+                ReviewJob previous = jobs.get(jobId);
+                if (previous != null && previous.state != JobState.CANCELLED) {
+                    cancel(previous, "被新提交" + shortId(submission.getCommitId()) + "取代");
+                    superseded++;
+                }
+            }
+            ReviewJob job = new ReviewJob(submission, jobKey(submission));
+            jobs.put(job.jobId, job);
+        }
+    }
+
+    /**
+     * 提交入队后需要等待的静默期（毫秒），可被取代的任务才需要等待
+     */
+    public long quietPeriodMillis(CodeSubmission submission) {
+        return supersedeEnabled && jobKey(submission) != null ? TimeUnit.SECONDS.toMillis(quietPeriodSeconds) : 0L;
+    }
+
+    /**
+     * 工作线程开始处理前调用：标记为执行中并记录执行线程
+     *
+     * @return 任务已被取代或取消时返回false，调用方跳过该提交
+     */
+    public boolean begin(CodeSubmission submission) {
+        synchronized (lock) {
+            ReviewJob job = jobs.get(submission.getSubmissionId());
+            if (job == null) {
+                // 未登记（如登记前已结束），不做跟踪直接执行
+                return true;
+            }
+            if (job.state == JobState.CANCELLED) {
+                log.info("Skip review job {} of commit {}: {}", job.jobId, job.commitId, job.cancelReason);
+                return false;
+            }
+            job.state = JobState.RUNNING;
+            job.startedAt = System.currentTimeMillis();
+            job.runner = Thread.currentThread();
+            return true;
+        }
+    }
+
+    /**
+     * 工作线程处理结束后调用，移除任务；任务执行中被取消时清除残留的中断标记，避免影响下一个任务
+     */
+    public void finish(CodeSubmission submission) {
+        synchronized (lock) {
+            ReviewJob job = jobs.remove(submission.getSubmissionId());
+            if (job != null && job.runner == Thread.currentThread()) {
+                job.runner = null;
+                if (job.state == JobState.CANCELLED) {
+                    Thread.interrupted();
+                }
+            }
+        }
+    }
+
+    /**
+     * 提交对应的任务是否已被取代或取消，已取消任务的结果不再通知
+     */
+    public boolean isCancelled(String submissionId) {
+        if (submissionId == null) {
+            return false;
+        }
+        synchronized (lock) {
+            ReviewJob job = jobs.get(submissionId);
+            return job != null && job.state == JobState.CANCELLED;
+        }
+    }
+
+    /**
+     * 管理接口手动取消任务
+     *
+     * @return 任务不存在或已取消时返回false
+     */
+    public boolean cancel(String jobId) {
+        synchronized (lock) {
+            ReviewJob job = jobs.get(jobId);
+            if (job == null || job.state == JobState.CANCELLED) {
+                return false;
+            }
+            cancel(job, "手动取消");
+            cancelledByAdmin++;
+            return true;
+        }
+    }
+
+    public List<Map<String, Object>> list() {
+        synchronized (lock) {
+            List<Map<String, Object>> list = new ArrayList<>(jobs.size());
+            for (ReviewJob job : jobs.values()) {
+                list.add(job.toMap());
+            }
+            return list;
+        }
+    }
+
+    public Map<String, Object> stats() {
+        synchronized (lock) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("supersedeEnabled", supersedeEnabled);
+            stats.put("quietPeriodSeconds", quietPeriodSeconds);
+            stats.put("jobs", jobs.size());
+            stats.put("superseded", superseded);
+            stats.put("cancelledByAdmin", cancelledByAdmin);
+            return stats;
+        }
+    }
+
+    private void cancel(ReviewJob job, String reason) {
+        job.state = JobState.CANCELLED;
+        job.cancelReason = reason;
+        if (job.runner != null) {
+            log.info("Interrupt running review job {} of commit {}: {}", job.jobId, job.commitId, reason);
+            job.runner.interrupt();
+        }
+    }
+
+    /**
+     * 把被取代任务的审查范围并入新提交：合并请求每次都审查完整diff，直接取代；
+     * 推送任务改为从旧任务的推送前SHA审查到新提交，任一方缺少推送前SHA（如新建分支）时无法合并，不取代；
+     * 合并、回滚提交不并入提交列表和提交信息，避免合并提交的标题排在首位导致整个审查被跳过
+     *
+     * @return 是否可以取代旧任务
+     */
+    private static boolean absorb(CodeSubmission submission, CodeSubmission previous) {
+        if (submission.getType() == CodeSubmission.SubmissionType.MERGE_REQUEST) {
+            return true;
+        }
+        if (submission.getBaseCommitId() == null || previous.getBaseCommitId() == null
+                || submission.getCommits() == null || previous.getCommits() == null) {
+            return false;
+        }
+        Map<String, CodeSubmission.CommitInfo> commits = new LinkedHashMap<>();
+        for (CodeSubmission.CommitInfo commit : previous.getCommits()) {
+            if (!GitlabPushEventListener.isMergeOrRevertMessage(commit.getTitle())) {
+                commits.put(commit.getId(), commit);
+            }
+        }
+        for (CodeSubmission.CommitInfo commit : submission.getCommits()) {
+            if (!GitlabPushEventListener.isMergeOrRevertMessage(commit.getTitle())) {
+                commits.put(commit.getId(), commit);
+            }
+        }
+        submission.setBaseCommitId(previous.getBaseCommitId());
+        // 都是合并、回滚提交时保留新提交原来的信息
+        if (commits.isEmpty()) {
+            return true;
+        }
+        StringBuilder message = new StringBuilder();
+        for (CodeSubmission.CommitInfo commit : commits.values()) {
+            message.append(message.length() == 0 ? "" : "\n").append(commit.getTitle());
+        }
+        submission.setCommits(new ArrayList<>(commits.values()));
+        submission.setMessage(message.toString());
+        return true;
+    }
+
+    /**
+     * 合并请求按iid，推送按分支；没有分支信息的提交（同一次推送逐个审查的多个提交）不互相取代
+     */
+    private static String jobKey(CodeSubmission submission) {
+        if (submission.getType() == CodeSubmission.SubmissionType.MERGE_REQUEST && submission.getMergeRequestId() != null) {
+            return submission.getProjectId() + ":mr:" + submission.getMergeRequestId();
+        }
+        if (submission.getRef() != null) {
+            return submission.getProjectId() + ":" + submission.getRef();
+        }
+        return null;
+    }
+
+    private static String shortId(String commitId) {
+        return commitId == null || commitId.length() <= 8 ? String.valueOf(commitId) : commitId.substring(0, 8);
+    }
+
+    private static class ReviewJob {
+
+        private final CodeSubmission submission;
+        private final String jobId;
+        private final String key;
+        private final String projectName;
+        private final String commitId;
+        private final String ref;
+        private final CodeSubmission.SubmissionType type;
+        private final long createdAt = System.currentTimeMillis();
+
+        private JobState state = JobState.QUEUED;
+        private long startedAt;
+        private String cancelReason;
+        private Thread runner;
+
+        ReviewJob(CodeSubmission submission, String key) {
+            this.submission = submission;
+            this.jobId = submission.getSubmissionId();
+            this.key = key;
+            this.projectName = submission.getProjectName();
+            this.commitId = submission.getCommitId();
+            this.ref = submission.getRef();
+            this.type = submission.getType();
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("jobId", jobId);
+            map.put("key", key);
+            map.put("projectName", projectName);
+            map.put("commitId", commitId);
+            map.put("ref", ref);
+            map.put("type", type);
+            map.put("state", state);
+            map.put("createdAt", createdAt);
+            map.put("startedAt", startedAt == 0 ? null : startedAt);
+            map.put("cancelReason", cancelReason);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.code.check.start.service.queue;
+
+import com.alibaba.fastjson.JSON;
+import com.code.check.start.event.gitlab.GitlabEventPublisher;
+import com.code.check.start.model.CodeSubmission;
+import com.code.check.start.service.ai.TokenQuotaService;
+import com.code.check.start.utils.AppendOnlyJournal;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/17 10:30
+ * @desc 代码提交待检测队列：有界内存队列 + 本地追加写日志，webhook只负责入队，工作线程异步消费，重启后未完成的提交会重新入队。
+ * 出队顺序由FairSubmissionScheduler决定：合并请求优先，各项目按权重公平分配检测线程
+ */
+@Service
+@Slf4j
+public class SubmissionQueueService {
+
+    private static final String OP_ENQUEUE = "ENQ";
+    private static final String OP_ACK = "ACK";
+    private static final String OP_DEFER = "DEFER";
+
+    @Autowired
+    private ReviewJobRegistry jobRegistry;
+
+    @Autowired
+    private TokenQuotaService tokenQuotaService;
+
+    @Value("${app.queue.capacity:200}")
+    private int capacity;
+
+    @Value("${app.queue.workers:2}")
+    private int workers;
+
+    @Value("${app.queue.journal-path:./data/submission-queue.journal}")
+    private String journalPath;
+
+    @Value("${app.queue.fsync:false}")
+    private boolean fsync;
+
+    /**
+     * 累计确认多少条后压缩一次日志
+     */
+    @Value("${app.queue.compact-threshold:500}")
+    private int compactThreshold;
+
+    /**
+     * 项目权重，格式为 项目ID:权重,项目ID:权重，未配置的项目权重为1
+     */
+    @Value("${app.queue.project-weights:}")
+    private String projectWeights;
+
+    private final Object lock = new Object();
+
+    /**
+     * 已入队但未处理完成的提交（含正在处理的），按入队顺序
+     */
+    private final Map<String, CodeSubmission> pending = new LinkedHashMap<>();
+
+    /**
+     * 因项目额度用完而推迟的提交及恢复执行时间，不在调度队列中，不占用队列容量
+     */
+    private final Map<String, Long> deferred = new HashMap<>();
+
+    private FairSubmissionScheduler queue;
+
+    private ScheduledExecutorService deferTimer;
+
+    private AppendOnlyJournal journal;
+
+    private ExecutorService workerPool;
+
+    private volatile boolean running;
+
+    private int ackSinceCompact;
+
+    private final AtomicInteger threadIndex = new AtomicInteger();
+
+    /**
+     * 应用就绪后（监听器均已注册）再恢复日志并启动消费线程
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() throws IOException {
+        journal = new AppendOnlyJournal(journalPath, fsync);
+        Map<String, Long> recoveredDeferred = new HashMap<>();
+        List<CodeSubmission> recovered = replayJournal(recoveredDeferred);
+        deferTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "submission-defer-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        synchronized (lock) {
+            queue = new FairSubmissionScheduler(Math.max(capacity, recovered.size()), parseProjectWeights(projectWeights));
+            for (CodeSubmission submission : recovered) {
+                pending.put(submission.getSubmissionId(), submission);
+                jobRegistry.register(submission);
+                Long deferUntil = recoveredDeferred.get(submission.getSubmissionId());
+                if (deferUntil != null && deferUntil > System.currentTimeMillis()) {
+                    park(submission, deferUntil);
+                } else {
+                    queue.offer(submission, 0L);
+                }
+            }
+            compact();
+        }
+        if (!recovered.isEmpty()) {
+            log.info("Recovered {} unfinished submissions from journal {}", recovered.size(), journal.getPath());
+        }
+
+        running = true;
+        workerPool = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "submission-worker-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < workers; i++) {
+            workerPool.execute(this::consume);
+        }
+    }
+
+    /**
+     * 提交入队，队列满时返回false由调用方决定如何响应
+     */
+    public boolean offer(CodeSubmission submission) {
+        synchronized (lock) {
+            if (queue == null || queue.size() >= capacity) {
+                log.warn("Submission queue is full, rejecting commit {} of project {}",
+                        submission.getCommitId(), submission.getProjectName());
+                return false;
+            }
+            if (submission.getSubmissionId() == null) {
+                submission.setSubmissionId(UUID.randomUUID().toString());
+            }
+            // 先合并被取代任务的审查范围并写日志，写入成功后再取消旧任务，写入失败时旧任务照常执行
+            List<String> supersededJobIds = jobRegistry.absorbSuperseded(submission);
+            try {
+                journal.append(JSON.toJSONString(new JournalRecord(OP_ENQUEUE, submission.getSubmissionId(), submission)));
+            } catch (IOException e) {
+                log.error("Failed to write submission journal", e);
+                return false;
+            }
+            jobRegistry.register(submission, supersededJobIds);
+            pending.put(submission.getSubmissionId(), submission);
+            // 静默期内不出队，等待同一分支可能到来的新提交
+            queue.offer(submission, System.currentTimeMillis() + jobRegistry.quietPeriodMillis(submission));
+            return true;
+        }
+    }
+
+    /**
+     * 当前排队（不含处理中）的提交数
+     */
+    public int size() {
+        FairSubmissionScheduler current = queue;
+        return current == null ? 0 : current.size();
+    }
+
+    /**
+     * 各项目排队数量与等待时间
+     */
+    public Map<String, Object> stats() {
+        FairSubmissionScheduler current = queue;
+        Map<String, Object> stats = current == null ? new LinkedHashMap<>() : current.stats();
+        synchronized (lock) {
+            stats.put("pending", pending.size());
+            stats.put("deferred", deferred.size());
+        }
+        return stats;
+    }
+
+    private void consume() {
+        while (running) {
+            CodeSubmission submission;
+            try {
+                submission = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            // 项目额度用完且配置为推迟时，移出调度队列等额度重置后再检测，推迟的提交不占用队列容量
+            long deferUntil = tokenQuotaService.deferUntil(submission.getProjectId());
+            if (deferUntil > 0 && defer(submission, deferUntil)) {
+                log.info("Project {} quota exhausted, defer commit {} until {}",
+                        submission.getProjectName(), submission.getCommitId(), deferUntil);
+                continue;
+            }
+            try {
+                // 已被同一分支的新提交取代的任务直接跳过
+                if (jobRegistry.begin(submission)) {
+                    GitlabEventPublisher.publishEvent(submission);
+                }
+            } catch (Exception e) {
+                // 不重试，避免异常数据反复消费
+                log.error("Error processing submission {}", submission.getSubmissionId(), e);
+            } finally {
+                jobRegistry.finish(submission);
+                if (!Thread.currentThread().isInterrupted() || running) {
+                    acknowledge(submission);
+                }
+            }
+        }
+    }
+
+    /**
+     * 记录推迟日志后挂起提交，日志写入失败时不推迟，照常检测
+     */
+    private boolean defer(CodeSubmission submission, long deferUntil) {
+        synchronized (lock) {
+            try {
+                journal.append(JSON.toJSONString(new JournalRecord(OP_DEFER, submission.getSubmissionId(), null, deferUntil)));
+            } catch (IOException e) {
+                log.error("Failed to write defer record of submission {}", submission.getSubmissionId(), e);
+                return false;
+            }
+            park(submission, deferUntil);
+            return true;
+        }
+    }
+
+    private void park(CodeSubmission submission, long deferUntil) {
+        deferred.put(submission.getSubmissionId(), deferUntil);
+        deferTimer.schedule(() -> resume(submission), Math.max(0L, deferUntil - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 推迟时间到，放回调度队列（不受容量限制，入队时已占用过名额），出队后会重新检查额度
+     */
+    private void resume(CodeSubmission submission) {
+        synchronized (lock) {
+            if (deferred.remove(submission.getSubmissionId()) != null) {
+                queue.requeue(submission);
+            }
+        }
+    }
+
+    private void acknowledge(CodeSubmission submission) {
+        synchronized (lock) {
+            pending.remove(submission.getSubmissionId());
+            try {
+                journal.append(JSON.toJSONString(new JournalRecord(OP_ACK, submission.getSubmissionId(), null)));
+                if (++ackSinceCompact >= compactThreshold) {
+                    compact();
+                }
+            } catch (IOException e) {
+                log.error("Failed to acknowledge submission {}", submission.getSubmissionId(), e);
+            }
+        }
+    }
+
+    /**
+     * 仅保留未完成提交的入队记录和推迟记录
+     */
+    private void compact() {
+        List<String> records = new ArrayList<>(pending.size() + deferred.size());
+        for (CodeSubmission submission : pending.values()) {
+            records.add(JSON.toJSONString(new JournalRecord(OP_ENQUEUE, submission.getSubmissionId(), submission)));
+        }
+        for (Map.Entry<String, Long> entry : deferred.entrySet()) {
+            records.add(JSON.toJSONString(new JournalRecord(OP_DEFER, entry.getKey(), null, entry.getValue())));
+        }
+        try {
+            journal.rewrite(records);
+            ackSinceCompact = 0;
+        } catch (IOException e) {
+            log.error("Failed to compact submission journal", e);
+        }
+    }
+
+    private static Map<Long, Double> parseProjectWeights(String value) {
+        Map<Long, Double> weights = new HashMap<>();
+        if (value == null || value.trim().isEmpty()) {
+            return weights;
+        }
+        for (String item : value.split(",")) {
+            String[] parts = item.trim().split(":");
+            try {
+                weights.put(Long.parseLong(parts[0].trim()), Double.parseDouble(parts[1].trim()));
+            } catch (RuntimeException e) {
+                log.warn("Skip invalid project weight: {}", item);
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * @param deferredOut 输出参数，未完成提交中被推迟的提交及恢复执行时间
+     */
+    private List<CodeSubmission> replayJournal(Map<String, Long> deferredOut) throws IOException {
+        Map<String, CodeSubmission> unfinished = new LinkedHashMap<>();
+        for (String line : journal.readAll()) {
+            JournalRecord record;
+            try {
+                record = JSON.parseObject(line, JournalRecord.class);
+            } catch (Exception e) {
+                log.warn("Skip corrupted journal record: {}", line);
+                continue;
+            }
+            if (OP_ENQUEUE.equals(record.getOp()) && record.getSubmission() != null) {
+                unfinished.put(record.getId(), record.getSubmission());
+            } else if (OP_DEFER.equals(record.getOp())) {
+                deferredOut.put(record.getId(), record.getDeferUntil());
+            } else if (OP_ACK.equals(record.getOp())) {
+                unfinished.remove(record.getId());
+                deferredOut.remove(record.getId());
+            }
+        }
+        return new ArrayList<>(unfinished.values());
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        running = false;
+        if (deferTimer != null) {
+            deferTimer.shutdownNow();
+        }
+        if (workerPool != null) {
+            workerPool.shutdownNow();
+            try {
+                workerPool.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class JournalRecord {
+        private String op;
+        private String id;
+        private CodeSubmission submission;
+        /**
+         * 推迟记录的恢复执行时间
+         */
+        private long deferUntil;
+
+        public JournalRecord(String op, String id, CodeSubmission submission) {
+            this(op, id, submission, 0L);
+        }
+    }
+}
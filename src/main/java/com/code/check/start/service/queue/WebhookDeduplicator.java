@@ -0,0 +1,184 @@
+package com.code.check.start.service.queue;
+
+import com.alibaba.fastjson.JSON;
+import com.code.check.start.utils.AppendOnlyJournal;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/19 17:05
+ * @desc WebHook去重：记录已受理的事件UUID和（项目，提交SHA，事件类型），GitLab重复投递时直接丢弃。
+ * 已受理记录按条数上限和过期时间淘汰，通过本地追加写日志持久化，重启后仍然生效
+ */
+@Component
+@Slf4j
+public class WebhookDeduplicator {
+
+    private static final String OP_SEEN = "SEEN";
+    private static final String OP_FORGET = "FORGET";
+
+    @Value("${gitlab.webhook.dedup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${gitlab.webhook.dedup.ttl-hours:24}")
+    private long ttlHours;
+
+    @Value("${gitlab.webhook.dedup.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${gitlab.webhook.dedup.journal-path:./data/webhook-dedup.journal}")
+    private String journalPath;
+
+    /**
+     * 插入顺序即过期顺序，过期和超出上限的记录都从头部淘汰
+     */
+    private final LinkedHashMap<String, Long> seen = new LinkedHashMap<>();
+
+    private AppendOnlyJournal journal;
+
+    private int appendedSinceCompact;
+
+    private long accepted;
+
+    private long duplicates;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        journal = new AppendOnlyJournal(journalPath, false);
+        long now = System.currentTimeMillis();
+        for (String line : journal.readAll()) {
+            DedupRecord record;
+            try {
+                record = JSON.parseObject(line, DedupRecord.class);
+            } catch (Exception e) {
+                log.warn("Skip corrupted dedup record: {}", line);
+                continue;
+            }
+            if (OP_SEEN.equals(record.getOp()) && record.getExpiresAt() > now) {
+                seen.remove(record.getKey());
+                seen.put(record.getKey(), record.getExpiresAt());
+            } else if (OP_FORGET.equals(record.getOp())) {
+                seen.remove(record.getKey());
+            }
+        }
+        evict(now);
+        compact();
+        log.info("Loaded {} webhook dedup keys from {}", seen.size(), journal.getPath());
+    }
+
+    /**
+     * 标记为已受理
+     *
+     * @return 已受理过（重复投递）时返回false
+     */
+    public synchronized boolean tryMark(String key) {
+        if (!enabled || key == null) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        evict(now);
+        if (seen.containsKey(key)) {
+            duplicates++;
+            return false;
+        }
+        long expiresAt = now + TimeUnit.HOURS.toMillis(ttlHours);
+        seen.put(key, expiresAt);
+        evict(now);
+        append(new DedupRecord(OP_SEEN, key, expiresAt));
+        accepted++;
+        return true;
+    }
+
+    /**
+     * 撤销标记：事件入队失败时调用，使GitLab的重试投递可以被正常受理
+     */
+    public synchronized void forget(String key) {
+        if (!enabled || key == null || seen.remove(key) == null) {
+            return;
+        }
+        accepted--;
+        append(new DedupRecord(OP_FORGET, key, 0L));
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("entries", seen.size());
+        stats.put("maxEntries", maxEntries);
+        stats.put("ttlHours", ttlHours);
+        stats.put("accepted", accepted);
+        stats.put("duplicates", duplicates);
+        return stats;
+    }
+
+    private void evict(long now) {
+        Iterator<Map.Entry<String, Long>> iterator = seen.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (eldest.getValue() > now && seen.size() <= maxEntries) {
+                break;
+            }
+            iterator.remove();
+        }
+    }
+
+    private void append(DedupRecord record) {
+        try {
+            journal.append(JSON.toJSONString(record));
+            // 日志中的记录数超过存活记录数较多时压缩
+            if (++appendedSinceCompact > Math.max(maxEntries, seen.size() * 2)) {
+                compact();
+            }
+        } catch (IOException e) {
+            // 持久化失败只影响重启后的去重，不影响本次受理
+            log.error("Failed to write webhook dedup journal", e);
+        }
+    }
+
+    private void compact() {
+        List<String> records = new ArrayList<>(seen.size());
+        for (Map.Entry<String, Long> entry : seen.entrySet()) {
+            records.add(JSON.toJSONString(new DedupRecord(OP_SEEN, entry.getKey(), entry.getValue())));
+        }
+        try {
+            journal.rewrite(records);
+            appendedSinceCompact = 0;
+        } catch (IOException e) {
+            log.error("Failed to compact webhook dedup journal", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class DedupRecord {
+        private String op;
+        private String key;
+        private long expiresAt;
+    }
+}
@@ -0,0 +1,106 @@
+package com.code.check.start.utils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/17 10:12
+ * @desc 本地追加写日志文件，一行一条记录（调用方自行序列化为单行JSON）
+ */
+public class AppendOnlyJournal implements Closeable {
+
+    private final Path path;
+
+    /**
+     * 每次写入后是否强制刷盘（防止机器掉电丢数据，代价是写入变慢）
+     */
+    private final boolean fsync;
+
+    private FileOutputStream outputStream;
+    private Writer writer;
+
+    public AppendOnlyJournal(String path, boolean fsync) throws IOException {
+        this.path = Paths.get(path).toAbsolutePath();
+        this.fsync = fsync;
+        Path parent = this.path.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        open();
+    }
+
+    private void open() throws IOException {
+        this.outputStream = new FileOutputStream(path.toFile(), true);
+        this.writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 追加一条记录
+     */
+    public synchronized void append(String record) throws IOException {
+        writer.write(record);
+        writer.write('\n');
+        writer.flush();
+        if (fsync) {
+            outputStream.getFD().sync();
+        }
+    }
+
+    /**
+     * 读取全部记录（跳过空行，进程崩溃导致的半行由调用方解析时丢弃）
+     */
+    public synchronized List<String> readAll() throws IOException {
+        List<String> records = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    records.add(line);
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * 用给定记录重写整个文件（压缩），先写临时文件再原子替换，替换失败时保留原文件
+     */
+    public synchronized void rewrite(Collection<String> records) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer tmpWriter = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (String record : records) {
+                tmpWriter.write(record);
+                tmpWriter.write('\n');
+            }
+        }
+        writer.close();
+        try {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            // 替换失败时原文件不变，重新打开后继续追加写
+            open();
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
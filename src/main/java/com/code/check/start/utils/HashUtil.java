@@ -0,0 +1,46 @@
+package com.code.check.start.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/17 14:05
+ * @desc 摘要计算工具
+ */
+public class HashUtil {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * 计算多个字段的SHA-256摘要，字段之间用不可见分隔符隔开，避免拼接歧义
+     */
+    public static String sha256Hex(String... parts) {
+        MessageDigest digest = newSha256();
+        for (String part : parts) {
+            if (part != null) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((byte) 0);
+        }
+        return toHex(digest.digest());
+    }
+
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+}
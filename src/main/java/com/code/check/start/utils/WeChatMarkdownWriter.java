@@ -0,0 +1,160 @@
+package com.code.check.start.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/21 10:30
+ * @desc 企业微信Markdown分段写入：内容按块（报告头、文件、问题）写入，每写完一块按UTF-8字节数放入当前分段，
+ * 放不下时整块移到下一段，因此块不会被拆到两条消息中（单块超过一条消息的上限时才在块内按段落拆分）。
+ * 写入时即完成转义和分段，不需要先拼出完整报告再拆分
+ */
+public class WeChatMarkdownWriter {
+
+    private final int maxBytes;
+
+    /**
+     * 多段时每段正文可用的字节数（预留分段标识）
+     */
+    private final int budget;
+
+    private final List<String> segments = new ArrayList<>();
+
+    private final StringBuilder segment = new StringBuilder();
+
+    private int segmentBytes;
+
+    private final StringBuilder block = new StringBuilder();
+
+    private long totalBytes;
+
+    public WeChatMarkdownWriter() {
+        this(WeChatMessageSplitter.MAX_MARKDOWN_BYTES);
+    }
+
+    public WeChatMarkdownWriter(int maxBytes) {
+        this.maxBytes = maxBytes;
+        this.budget = WeChatMessageSplitter.segmentBudget(maxBytes);
+    }
+
+    /**
+     * 原样写入Markdown内容
+     */
+    public WeChatMarkdownWriter append(String markdown) {
+        block.append(markdown);
+        return this;
+    }
+
+    public WeChatMarkdownWriter append(long value) {
+        block.append(value);
+        return this;
+    }
+
+    /**
+     * 转义后写入文本
+     */
+    public WeChatMarkdownWriter appendEscaped(String text) {
+        escape(block, text);
+        return this;
+    }
+
+    /**
+     * 结束当前块：当前分段放得下时追加到当前分段，否则从下一段开始
+     */
+    public WeChatMarkdownWriter endBlock() {
+        if (block.length() == 0) {
+            return this;
+        }
+        String content = block.toString();
+        block.setLength(0);
+        int bytes = WeChatMessageSplitter.utf8Length(content, 0, content.length());
+        totalBytes += bytes;
+        if (segmentBytes + bytes <= budget) {
+            segment.append(content);
+            segmentBytes += bytes;
+            return this;
+        }
+        flushSegment();
+        if (bytes <= budget) {
+            segment.append(content);
+            segmentBytes = bytes;
+            return this;
+        }
+        // 单块超过上限，在块内拆分，最后一部分可以与后续的块合并
+        List<String> bodies = WeChatMessageSplitter.splitBody(content, budget);
+        for (int i = 0; i < bodies.size() - 1; i++) {
+            segments.add(bodies.get(i));
+        }
+        String last = bodies.get(bodies.size() - 1);
+        segment.append(last);
+        segmentBytes = WeChatMessageSplitter.utf8Length(last, 0, last.length());
+        return this;
+    }
+
+    /**
+     * 结束写入，返回可直接发送的分段：只有一段时不加分段标识
+     */
+    public List<String> toSegments() {
+        endBlock();
+        flushSegment();
+        List<String> result = new ArrayList<>(Math.max(1, segments.size()));
+        if (segments.size() <= 1 || totalBytes <= maxBytes) {
+            result.add(String.join("", segments));
+            return result;
+        }
+        for (int i = 0; i < segments.size(); i++) {
+            result.add(segments.get(i) + WeChatMessageSplitter.marker(i + 1, segments.size()));
+        }
+        return result;
+    }
+
+    private void flushSegment() {
+        if (segment.length() > 0) {
+            segments.add(segment.toString());
+            segment.setLength(0);
+            segmentBytes = 0;
+        }
+    }
+
+    /**
+     * 转义企业微信Markdown特殊字符
+     */
+    public static String escape(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder(text.length() + 16);
+        escape(out, text);
+        return out.toString();
+    }
+
+    /**
+     * 单遍扫描转义：\ * _ ~ ` # [ ] ( ) 前加反斜杠
+     */
+    public static void escape(StringBuilder out, String text) {
+        if (text == null) {
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\':
+                case '*':
+                case '_':
+                case '~':
+                case '`':
+                case '#':
+                case '[':
+                case ']':
+                case '(':
+                case ')':
+                    out.append('\\');
+                    break;
+                default:
+                    break;
+            }
+            out.append(c);
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package com.code.check.start.web;
 
 import com.alibaba.fastjson.JSON;
-import com.code.check.start.event.gitlab.GitlabEventPublisher;
+import com.code.check.start.event.gitlab.GitlabPushEventListener;
 import com.code.check.start.model.CodeSubmission;
 import com.code.check.start.model.GitlabEventType;
+import com.code.check.start.service.queue.SubmissionQueueService;
+import com.code.check.start.service.queue.WebhookDeduplicator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
@@ -18,6 +20,10 @@ import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 
 /**
@@ -33,14 +39,32 @@ public class GitLabWebHookController {
 
     private final ObjectMapper objectMapper;
 
+    private final SubmissionQueueService submissionQueueService;
+
+    private final WebhookDeduplicator webhookDeduplicator;
+
     @Value("${gitlab.webhook.secret}")
     private String webhookSecret;
 
+    /**
+     * 一次推送包含多个提交时合并为一次审查（按推送前后SHA取净变更）
+     */
+    @Value("${app.code-inspect.push-aggregation.enabled:true}")
+    private boolean pushAggregationEnabled;
+
+    private static final String ZERO_SHA = "0000000000000000000000000000000000000000";
+
+    /**
+     * 会带来新代码的合并请求动作，关闭、合并、审批等动作不审查
+     */
+    private static final List<String> MERGE_REQUEST_REVIEW_ACTIONS = Arrays.asList("open", "reopen", "update");
+
     @PostMapping("${gitlab.webhook.endpoint}")
     public ResponseEntity<Void> handleWebHook(
             @RequestBody String payload,
             @RequestHeader(value = "X-Gitlab-Event", required = false) String eventType,
-            @RequestHeader(value = "X-Gitlab-Token", required = false) String token) {
+            @RequestHeader(value = "X-Gitlab-Token", required = false) String token,
+            @RequestHeader(value = "X-Gitlab-Event-UUID", required = false) String eventUuid) {
 
         log.info("Received GitLab webhook event: {} token:{}", eventType, token);
 
@@ -50,30 +74,54 @@ public class GitLabWebHookController {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
         }*/
 
+        GitlabEventType eventTypeEnum = GitlabEventType.getByEventType(eventType);
+        if (eventTypeEnum == null) {
+            log.info("Unhandled GitLab event type: {}", eventType);
+            return ResponseEntity.ok().build();
+        }
+        // GitLab认为投递失败时会用同一个事件UUID重试，已受理过的直接返回成功
+        String eventKey = ObjectUtils.isEmpty(eventUuid) ? null : "uuid:" + eventUuid;
+        if (!webhookDeduplicator.tryMark(eventKey)) {
+            log.info("Duplicate GitLab webhook delivery {}, skip", eventUuid);
+            return ResponseEntity.ok().build();
+        }
+
         try {
             JsonNode payloadNode = objectMapper.readTree(payload);
-            GitlabEventType eventTypeEnum = GitlabEventType.getByEventType(eventType);
-
-            if (eventType == null) {
-                log.info("Unhandled GitLab event type: {}", eventType);
-                return ResponseEntity.ok().build();
+            // 只做入队，检测在后台工作线程中执行，避免GitLab回调超时
+            if (!handlePushEvent(payloadNode, eventTypeEnum)) {
+                webhookDeduplicator.forget(eventKey);
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
             }
-            handlePushEvent(payloadNode, eventTypeEnum);
 
             return ResponseEntity.ok().build();
         } catch (IOException e) {
+            webhookDeduplicator.forget(eventKey);
             log.error("Error processing webhook payload", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
-    private void handlePushEvent(JsonNode payload, GitlabEventType eventTypeEnum) {
+    /**
+     * @return 队列已满导致有提交未能入队时返回false
+     */
+    private boolean handlePushEvent(JsonNode payload, GitlabEventType eventTypeEnum) {
+        boolean accepted = true;
         try {
+            if (eventTypeEnum == GitlabEventType.MERGE) {
+                CodeSubmission mergeRequest = buildMergeRequest(payload, eventTypeEnum);
+                return mergeRequest == null || enqueue(mergeRequest);
+            }
             Long projectId = payload.get("project_id").asLong();
             String projectName = payload.get("project").get("name").asText();
             String repositoryUrl = payload.get("repository").get("url").asText();
+            CodeSubmission aggregated = buildAggregatedPush(payload, eventTypeEnum, projectId, projectName, repositoryUrl);
+            if (aggregated != null) {
+                return enqueue(aggregated);
+            }
             // 处理每个提交
-            for (JsonNode commitNode : payload.get("commits")) {
+            JsonNode commitNodes = payload.get("commits");
+            for (JsonNode commitNode : commitNodes) {
                 String commitId = commitNode.get("id").asText();
                 String authorName = commitNode.get("author").get("name").asText();
                 String commitMessage = commitNode.get("message").asText();
@@ -87,13 +135,130 @@ public class GitLabWebHookController {
                         .message(commitMessage)
                         .type(eventTypeEnum.getSubmissionType())
                         .build();
+                // 单提交推送记录分支和推送前SHA，同一分支再次推送时可取代该任务并合并审查范围；
+                // 同一次推送逐个审查的多个提交不记录分支，彼此不互相取代
+                if (commitNodes.size() == 1) {
+                    submission.setRef(payload.path("ref").asText(null));
+                    String before = payload.path("before").asText(null);
+                    if (!ObjectUtils.isEmpty(before) && !ZERO_SHA.equals(before)) {
+                        submission.setBaseCommitId(before);
+                        submission.setCommits(new ArrayList<>(Collections.singletonList(
+                                new CodeSubmission.CommitInfo(commitId, firstLine(commitMessage), authorName))));
+                    }
+                }
 
-                // 发布代码提交事件
-                GitlabEventPublisher.publishEvent(submission);
+                // 代码提交入队，由工作线程发布事件
+                accepted &= enqueue(submission);
             }
         } catch (Exception e) {
             log.error("Error handling push event", e);
         }
+        return accepted;
+    }
+
+    /**
+     * 按（项目，提交SHA，事件类型）去重后入队，入队失败时撤销去重标记以便GitLab重试
+     *
+     * @return 队列已满时返回false，重复的提交视为已受理
+     */
+    private boolean enqueue(CodeSubmission submission) {
+        String key = submission.getProjectId() + ":" + submission.getCommitId() + ":" + submission.getType();
+        if (!webhookDeduplicator.tryMark(key)) {
+            log.info("Commit {} of project {} has already been accepted, skip", submission.getCommitId(), submission.getProjectName());
+            return true;
+        }
+        if (!submissionQueueService.offer(submission)) {
+            webhookDeduplicator.forget(key);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 多提交推送合并为一个提交：commitId为推送后的SHA，baseCommitId为推送前的SHA；
+     * 新建分支（before为全0）、只有一个有效提交或未开启合并时返回null，按提交逐个审查
+     */
+    private CodeSubmission buildAggregatedPush(JsonNode payload, GitlabEventType eventTypeEnum, Long projectId,
+                                               String projectName, String repositoryUrl) {
+        JsonNode commitNodes = payload.path("commits");
+        String before = payload.path("before").asText(null);
+        String after = payload.path("after").asText(null);
+        if (!pushAggregationEnabled || eventTypeEnum != GitlabEventType.PUSH || commitNodes.size() < 2
+                || ObjectUtils.isEmpty(before) || ObjectUtils.isEmpty(after) || ZERO_SHA.equals(before) || ZERO_SHA.equals(after)) {
+            return null;
+        }
+
+        List<CodeSubmission.CommitInfo> commits = new ArrayList<>();
+        StringBuilder message = new StringBuilder();
+        String author = null;
+        for (JsonNode commitNode : commitNodes) {
+            String commitMessage = commitNode.path("message").asText("");
+            // 合并、回滚提交不参与提交信息与文件归属
+            if (GitlabPushEventListener.isMergeOrRevertMessage(commitMessage)) {
+                continue;
+            }
+            String title = commitNode.path("title").asText(firstLine(commitMessage));
+            author = commitNode.path("author").path("name").asText(author);
+            commits.add(new CodeSubmission.CommitInfo(commitNode.path("id").asText(), title, author));
+            message.append(message.length() == 0 ? "" : "\n").append(title);
+        }
+        // 过滤后只剩一个提交时按单个提交审查，避免把合并进来的代码一并审查
+        if (commits.size() < 2) {
+            return null;
+        }
+
+        return CodeSubmission.builder()
+                .projectId(projectId)
+                .projectName(projectName)
+                .repositoryUrl(repositoryUrl)
+                .commitId(after)
+                .baseCommitId(before)
+                .ref(payload.path("ref").asText(null))
+                .commits(commits)
+                .author(payload.path("user_name").asText(author))
+                .message(message.toString())
+                .type(eventTypeEnum.getSubmissionType())
+                .build();
+    }
+
+    /**
+     * 合并请求事件没有commits和project_id：按iid审查合并请求的完整净变更，commitId取源分支的最新提交，
+     * 同一合并请求再次更新时取代旧任务；只修改标题、描述等没有新提交的更新（无oldrev）不审查
+     *
+     * @return 不需要审查时返回null
+     */
+    private CodeSubmission buildMergeRequest(JsonNode payload, GitlabEventType eventTypeEnum) {
+        JsonNode attributes = payload.path("object_attributes");
+        String action = attributes.path("action").asText("");
+        JsonNode lastCommit = attributes.path("last_commit");
+        if (!MERGE_REQUEST_REVIEW_ACTIONS.contains(action)
+                || ("update".equals(action) && ObjectUtils.isEmpty(attributes.path("oldrev").asText(null)))) {
+            log.info("Skip merge request {} action: {}", attributes.path("iid").asText(), action);
+            return null;
+        }
+        if (!attributes.hasNonNull("iid") || ObjectUtils.isEmpty(lastCommit.path("id").asText(null))) {
+            log.warn("Merge request event without iid or last_commit, skip: {}", attributes);
+            return null;
+        }
+        JsonNode project = payload.path("project");
+        String title = attributes.path("title").asText("");
+        return CodeSubmission.builder()
+                .projectId(project.path("id").asLong())
+                .projectName(project.path("name").asText())
+                .repositoryUrl(payload.path("repository").path("url").asText(project.path("git_http_url").asText(null)))
+                .commitId(lastCommit.path("id").asText())
+                .mergeRequestId(attributes.path("iid").asLong())
+                .title(title)
+                .author(payload.path("user").path("name").asText(lastCommit.path("author").path("name").asText(null)))
+                .message(title)
+                .ref(attributes.path("source_branch").asText(null))
+                .type(eventTypeEnum.getSubmissionType())
+                .build();
+    }
+
+    private static String firstLine(String message) {
+        int newLine = message.indexOf('\n');
+        return newLine < 0 ? message : message.substring(0, newLine);
     }
 
 
@@ -0,0 +1,220 @@
+package com.code.check.start.web;
+
+import com.code.check.start.service.ai.ReviewModelClient;
+import com.code.check.start.service.ai.ReviewResponseCache;
+import com.code.check.start.service.ai.ReviewResultStore;
+import com.code.check.start.service.ai.TokenQuotaService;
+import com.code.check.start.service.gitlab.GitLabFetchClient;
+import com.code.check.start.service.gitlab.GitLabService;
+import com.code.check.start.service.notify.NotificationDigest;
+import com.code.check.start.service.notify.NotificationOutbox;
+import com.code.check.start.service.notify.WeChatNotificationService;
+import com.code.check.start.service.queue.ReviewJobRegistry;
+import com.code.check.start.service.queue.SubmissionQueueService;
+import com.code.check.start.service.queue.WebhookDeduplicator;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.ObjectUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @Author yueyue.guan
+ * @date 2026/10/17 14:30
+ * @desc 运行状态查询接口
+ */
+@RestController
+@RequestMapping("/monitor")
+@RequiredArgsConstructor
+public class MonitorController {
+
+    private final ReviewResponseCache reviewResponseCache;
+
+    private final ReviewResultStore reviewResultStore;
+
+    private final ReviewModelClient reviewModelClient;
+
+    private final GitLabFetchClient gitLabFetchClient;
+
+    private final GitLabService gitLabService;
+
+    private final ReviewJobRegistry jobRegistry;
+
+    private final SubmissionQueueService submissionQueueService;
+
+    private final TokenQuotaService tokenQuotaService;
+
+    private final WeChatNotificationService weChatNotificationService;
+
+    private final NotificationOutbox notificationOutbox;
+
+    private final NotificationDigest notificationDigest;
+
+    private final WebhookDeduplicator webhookDeduplicator;
+
+    /**
+     * 管理接口（取消任务等会改变状态的操作）的令牌，请求头X-Admin-Token需与之一致；未配置时管理接口关闭
+     */
+    @Value("${app.monitor.admin-token:}")
+    private String adminToken;
+
+    /**
+     * 大模型审查结果缓存命中情况
+     */
+    @GetMapping("/ai-cache")
+    public Map<String, Object> aiCache() {
+        return reviewResponseCache.stats();
+    }
+
+    /**
+     * 审查结果本地持久化存储状态
+     */
+    @GetMapping("/review-store")
+    public Map<String, Object> reviewStore() {
+        return reviewResultStore.stats();
+    }
+
+    /**
+     * 大模型调用耗时、超时与对冲情况
+     */
+    @GetMapping("/ai-model")
+    public Map<String, Object> aiModel() {
+        return reviewModelClient.stats();
+    }
+
+    /**
+     * GitLab diff拉取的请求、重试与限流情况
+     */
+    @GetMapping("/gitlab-fetch")
+    public Map<String, Object> gitlabFetch() {
+        return gitLabFetchClient.stats();
+    }
+
+    /**
+     * GitLab读取缓存命中情况
+     */
+    @GetMapping("/gitlab-cache")
+    public Map<String, Object> gitlabCache() {
+        return gitLabService.cacheStats();
+    }
+
+    /**
+     * WebHook重复投递去重情况
+     */
+    @GetMapping("/webhook-dedup")
+    public Map<String, Object> webhookDedup() {
+        return webhookDeduplicator.stats();
+    }
+
+    /**
+     * 待检测队列按项目统计的排队数量与等待时间
+     */
+    @GetMapping("/queue")
+    public Map<String, Object> queue() {
+        return submissionQueueService.stats();
+    }
+
+    /**
+     * 各项目当天、当月的大模型用量与额度
+     */
+    @GetMapping("/quota")
+    public Map<String, Object> quota() {
+        return tokenQuotaService.stats();
+    }
+
+    @GetMapping("/quota/{projectId}")
+    public Map<String, Object> projectQuota(@PathVariable Long projectId) {
+        return tokenQuotaService.projectStats(projectId);
+    }
+
+    /**
+     * 企业微信通知发送与限流情况
+     */
+    @GetMapping("/wechat")
+    public Map<String, Object> wechat() {
+        return weChatNotificationService.stats();
+    }
+
+    /**
+     * 通知发件箱中待投递的消息
+     */
+    @GetMapping("/outbox")
+    public Map<String, Object> outbox() {
+        return notificationOutbox.stats();
+    }
+
+    /**
+     * 各项目汇总窗口中等待发送的报告
+     */
+    @GetMapping("/digest")
+    public Map<String, Object> digest() {
+        return notificationDigest.stats();
+    }
+
+    /**
+     * 超过重试次数的通知
+     */
+    @GetMapping("/outbox/dead-letters")
+    public List<Map<String, Object>> deadLetters() throws IOException {
+        return notificationOutbox.deadLetterList();
+    }
+
+    /**
+     * 死信重新投递
+     */
+    @PostMapping("/outbox/dead-letters/{id}/redeliver")
+    public ResponseEntity<Void> redeliver(@PathVariable String id,
+                                          @RequestHeader(value = "X-Admin-Token", required = false) String token)
+            throws IOException {
+        if (!isAdmin(token)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return notificationOutbox.redeliver(id) ? ResponseEntity.ok().build() : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * 排队中和执行中的审查任务
+     */
+    @GetMapping("/jobs")
+    public Map<String, Object> jobs() {
+        Map<String, Object> result = new LinkedHashMap<>(jobRegistry.stats());
+        List<Map<String, Object>> jobs = jobRegistry.list();
+        result.put("items", jobs);
+        return result;
+    }
+
+    /**
+     * 取消审查任务：排队中的任务出队后跳过，执行中的任务中断并丢弃结果
+     */
+    @PostMapping("/jobs/{jobId}/cancel")
+    public ResponseEntity<Void> cancelJob(@PathVariable String jobId,
+                                          @RequestHeader(value = "X-Admin-Token", required = false) String token) {
+        if (!isAdmin(token)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return jobRegistry.cancel(jobId) ? ResponseEntity.ok().build() : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * 未配置令牌时拒绝所有管理请求；按字节定长比较，避免通过响应时间猜测令牌
+     */
+    private boolean isAdmin(String token) {
+        if (ObjectUtils.isEmpty(adminToken) || token == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(adminToken.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+}
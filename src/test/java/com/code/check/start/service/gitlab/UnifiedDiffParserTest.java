@@ -0,0 +1,149 @@
+package com.code.check.start.service.gitlab;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 单遍diff解析器与原正则解析器在真实diff样本上的结果对比
+ */
+class UnifiedDiffParserTest {
+
+    @Test
+    void matchesLegacyParserOnCorpus() throws Exception {
+        List<Path> corpus = corpus();
+        assertFalse(corpus.isEmpty());
+        for (Path file : corpus) {
+            String diff = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            assertSameResult(file.getFileName().toString(), diff);
+            // gitlab接口返回的diff不包含文件头，从第一个hunk开始
+            assertSameResult(file.getFileName() + " (hunks only)", diff.substring(diff.indexOf("@@")));
+            assertSameResult(file.getFileName() + " (crlf)", diff.replace("\n", "\r\n"));
+        }
+    }
+
+    @Test
+    void keepsLinesThatLookLikeFileHeaders() {
+        String diff = "@@ -1,3 +1,3 @@\n"
+                + " SELECT 1;\n"
+                + "--- old comment\n"
+                + "+++ counter\n"
+                + " SELECT 2;\n";
+        Collected collected = parse(diff);
+        assertEquals(Arrays.asList("2:++ counter"), collected.added);
+        assertEquals(Arrays.asList("2:-- old comment"), collected.removed);
+    }
+
+    @Test
+    void parsesHunkHeaderWithoutCounts() {
+        int[] header = new int[4];
+        String line = "@@ -7 +9,0 @@ class Foo {";
+        assertTrue(UnifiedDiffParser.parseHunkHeader(line, 0, line.length(), header));
+        assertEquals(Arrays.asList(7, 1, 9, 0), Arrays.asList(header[0], header[1], header[2], header[3]));
+
+        String invalid = "@@ -a,1 +1 @@";
+        assertFalse(UnifiedDiffParser.parseHunkHeader(invalid, 0, invalid.length(), header));
+    }
+
+    private static void assertSameResult(String name, String diff) {
+        List<String> legacyAdded = new ArrayList<>();
+        List<String> legacyRemoved = new ArrayList<>();
+        LegacyRegexDiffParser.parse(diff, legacyAdded, legacyRemoved);
+
+        Collected collected = parse(diff);
+        assertFalse(collected.added.isEmpty() && collected.removed.isEmpty(), name);
+        assertEquals(legacyAdded, collected.added, name);
+        assertEquals(legacyRemoved, collected.removed, name);
+    }
+
+    private static Collected parse(String diff) {
+        Collected collected = new Collected();
+        UnifiedDiffParser.parse(diff, collected);
+        return collected;
+    }
+
+    private static List<Path> corpus() throws IOException, URISyntaxException {
+        Path dir = Paths.get(UnifiedDiffParserTest.class.getResource("/diffs").toURI());
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.diff")) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    private static class Collected implements UnifiedDiffParser.LineHandler {
+
+        final List<String> added = new ArrayList<>();
+        final List<String> removed = new ArrayList<>();
+
+        @Override
+        public void added(int lineNumber, String source, int start, int end) {
+            added.add(lineNumber + ":" + source.substring(start, end));
+        }
+
+        @Override
+        public void removed(int lineNumber, String source, int start, int end) {
+            removed.add(lineNumber + ":" + source.substring(start, end));
+        }
+    }
+
+    /**
+     * 原CodeProcessingService中基于split和正则的解析实现，仅作为对比基准
+     */
+    private static class LegacyRegexDiffParser {
+
+        private static final Pattern DIFF_HEADER_PATTERN = Pattern.compile("^@@ -(\\d+)(?:,(\\d+))? \\+(\\d+)(?:,(\\d+))? @@");
+        private static final Pattern NEW_FILE_PATTERN = Pattern.compile("^\\+\\+\\+ b/(.+)");
+
+        static void parse(String diffContent, List<String> addedLines, List<String> removedLines) {
+            if (diffContent == null || diffContent.trim().isEmpty()) {
+                return;
+            }
+            int currentLineNumber = 0;
+            int oldLineNumber = 0;
+            boolean inHunk = false;
+            for (String line : diffContent.split("\n")) {
+                if (NEW_FILE_PATTERN.matcher(line).find()) {
+                    continue;
+                }
+                Matcher diffHeaderMatcher = DIFF_HEADER_PATTERN.matcher(line);
+                if (diffHeaderMatcher.find()) {
+                    inHunk = true;
+                    oldLineNumber = Integer.parseInt(diffHeaderMatcher.group(1));
+                    currentLineNumber = Integer.parseInt(diffHeaderMatcher.group(3));
+                    continue;
+                }
+                if (!inHunk) {
+                    continue;
+                }
+                if (line.startsWith("+") && !line.startsWith("++")) {
+                    addedLines.add(currentLineNumber + ":" + line.substring(1));
+                    currentLineNumber++;
+                } else if (line.startsWith("-") && !line.startsWith("--")) {
+                    removedLines.add(oldLineNumber + ":" + line.substring(1));
+                    oldLineNumber++;
+                } else if (line.startsWith(" ")) {
+                    currentLineNumber++;
+                    oldLineNumber++;
+                } else if (!line.startsWith("\\")) {
+                    inHunk = false;
+                }
+            }
+        }
+    }
+}
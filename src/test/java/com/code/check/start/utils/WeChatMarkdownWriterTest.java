@@ -0,0 +1,81 @@
+package com.code.check.start.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分段写入：块不跨分段、每段不超过上限、转义结果与逐个replace一致
+ */
+class WeChatMarkdownWriterTest {
+
+    @Test
+    void keepsBlocksInOneSegment() {
+        Random random = new Random(20261021L);
+        for (int round = 0; round < 100; round++) {
+            WeChatMarkdownWriter writer = new WeChatMarkdownWriter(1024);
+            List<String> blocks = new ArrayList<>();
+            int count = 1 + random.nextInt(60);
+            for (int i = 0; i < count; i++) {
+                StringBuilder block = new StringBuilder("#### 文件").append(i).append("：\n");
+                int lines = random.nextInt(20);
+                for (int line = 0; line < lines; line++) {
+                    block.append(line % 2 == 0 ? "问题描述：魔法值\n" : "suggest fix\n");
+                }
+                blocks.add(block.toString());
+                writer.append(block.toString()).endBlock();
+            }
+            List<String> segments = writer.toSegments();
+
+            StringBuilder restored = new StringBuilder();
+            for (String segment : segments) {
+                assertTrue(segment.getBytes(StandardCharsets.UTF_8).length <= 1024);
+                String body = segments.size() == 1 ? segment : segment.substring(0, segment.lastIndexOf("\n**📝 分段发送"));
+                restored.append(body);
+                for (String block : blocks) {
+                    int at = body.indexOf(block.substring(0, block.indexOf('\n') + 1));
+                    if (at >= 0) {
+                        assertTrue(body.startsWith(block, at), "block split across segments");
+                    }
+                }
+            }
+            assertEquals(String.join("", blocks), restored.toString());
+        }
+    }
+
+    @Test
+    void splitsOversizedBlock() {
+        StringBuilder block = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            block.append("第").append(i).append("行说明\n");
+        }
+        List<String> segments = new WeChatMarkdownWriter(1024).append(block.toString()).toSegments();
+        assertTrue(segments.size() > 1);
+        for (String segment : segments) {
+            assertTrue(segment.getBytes(StandardCharsets.UTF_8).length <= 1024);
+        }
+    }
+
+    @Test
+    void escapesLikeChainedReplace() {
+        String text = "a\\b*c_d~e`f#g[h]i(j)k 中文😀";
+        String expected = text.replace("\\", "\\\\")
+                .replace("*", "\\*")
+                .replace("_", "\\_")
+                .replace("~", "\\~")
+                .replace("`", "\\`")
+                .replace("#", "\\#")
+                .replace("[", "\\[")
+                .replace("]", "\\]")
+                .replace("(", "\\(")
+                .replace(")", "\\)");
+        assertEquals(expected, WeChatMarkdownWriter.escape(text));
+        assertEquals("", WeChatMarkdownWriter.escape(null));
+    }
+}
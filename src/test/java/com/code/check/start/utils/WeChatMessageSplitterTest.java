@@ -0,0 +1,128 @@
+package com.code.check.start.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 消息分割的性质测试：每段不超过字节上限、去掉分段标识后拼接还原原文、分段序号连续
+ * （分割耗时见benchmarks模块的WeChatMessageSplitterBenchmark）
+ */
+class WeChatMessageSplitterTest {
+
+    private static final Pattern MARKER = Pattern.compile("\n\\*\\*📝 分段发送 \\((\\d+)/(\\d+)\\)\\*\\*$");
+
+    private static final String[] PIECES = {
+            "a", "Z", " ", "\n", "\n\n", "中", "文字", "é", "😀", "\uD83D", "\uDE00", "```\n", "#### 文件1：A.java\n",
+            "**问题数：**3\n", "\n---\n\n", "> 修改建议\n"
+    };
+
+    @Test
+    void segmentsFitLimitAndRestoreContent() {
+        Random random = new Random(20261017L);
+        for (int round = 0; round < 300; round++) {
+            StringBuilder content = new StringBuilder();
+            int pieces = random.nextInt(3000);
+            for (int i = 0; i < pieces; i++) {
+                content.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            int maxBytes = 64 + random.nextInt(4096);
+            assertSplit(content.toString(), maxBytes);
+        }
+    }
+
+    @Test
+    void splitsLongLinesWithoutBreakingCharacters() {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            content.append(i % 3 == 0 ? "😀" : "中");
+        }
+        assertSplit(content.toString(), 4096);
+        assertSplit(content.toString(), 100);
+    }
+
+    @Test
+    void keepsShortMessageUnchanged() {
+        String content = "### 检查结果\n\n**问题数：**0\n";
+        List<String> segments = WeChatMessageSplitter.splitMessage(content, true);
+        assertEquals(1, segments.size());
+        assertEquals(content, segments.get(0));
+    }
+
+    @Test
+    void prefersFileSectionBoundaries() {
+        String report = report(40);
+        List<String> segments = assertSplit(report, 4096);
+        assertTrue(segments.size() > 1);
+        for (int i = 1; i < segments.size(); i++) {
+            assertTrue(segments.get(i).startsWith("#### 文件"), "segment " + (i + 1) + " starts mid-section");
+        }
+    }
+
+    @Test
+    void splitsReportOver100Kb() {
+        String report = report(200);
+        assertTrue(report.getBytes(StandardCharsets.UTF_8).length > 100 * 1024);
+        List<String> segments = assertSplit(report, 4096);
+        for (int i = 1; i < segments.size(); i++) {
+            assertTrue(segments.get(i).startsWith("#### 文件"), "segment " + (i + 1) + " starts mid-section");
+        }
+        assertSplit(report, 4000);
+    }
+
+    private static List<String> assertSplit(String content, int maxBytes) {
+        List<String> segments = WeChatMessageSplitter.splitMessage(content, maxBytes);
+        if (segments.size() == 1 && content.getBytes(StandardCharsets.UTF_8).length <= maxBytes) {
+            assertEquals(content, segments.get(0));
+            return segments;
+        }
+        StringBuilder restored = new StringBuilder();
+        for (int i = 0; i < segments.size(); i++) {
+            String segment = segments.get(i);
+            assertTrue(segment.getBytes(StandardCharsets.UTF_8).length <= maxBytes,
+                    "segment " + (i + 1) + " exceeds " + maxBytes + " bytes");
+            Matcher matcher = MARKER.matcher(segment);
+            assertTrue(matcher.find(), "segment " + (i + 1) + " has no marker");
+            assertEquals(i + 1, Integer.parseInt(matcher.group(1)));
+            assertEquals(segments.size(), Integer.parseInt(matcher.group(2)));
+            String body = segment.substring(0, matcher.start());
+            assertTrue(!body.isEmpty(), "segment " + (i + 1) + " is empty");
+            boolean splitsPair = restored.length() > 0 && Character.isHighSurrogate(restored.charAt(restored.length() - 1))
+                    && Character.isLowSurrogate(body.charAt(0));
+            assertTrue(!splitsPair, "segment " + (i + 1) + " splits a character");
+            restored.append(body);
+        }
+        assertEquals(content, restored.toString());
+        return segments;
+    }
+
+    /**
+     * 与检测报告格式相同的内容
+     */
+    private static String report(int files) {
+        StringBuilder markdown = new StringBuilder("### ⚠️【代码检查】AI检查结果-2025-08-22 18:06:05\n\n")
+                .append("**项目：**demo\n**提交人：**张三\n**提交信息：**优化列表查询\n\n")
+                .append("**检查文件数：**").append(files).append("\n\n");
+        for (int file = 1; file <= files; file++) {
+            markdown.append("#### 文件").append(file).append("：src/main/java/com/demo/Service").append(file).append(".java\n")
+                    .append("**文件评价：**该文件变更主要为分页查询方法的实现，代码结构清晰，存在部分魔法值和潜在空指针风险。\n")
+                    .append("**问题数：**2\n**问题详情：**\n");
+            for (int issue = 1; issue <= 2; issue++) {
+                markdown.append(issue).append(". **问题等级：**中\n")
+                        .append("   **代码行数：**").append(issue * 10).append("\n")
+                        .append("   **问题描述：**使用了魔法值0作为startIndex的初始值，应使用常量替代以增强可读性\n")
+                        .append("   **建议代码：**\n```\nsearchDTO.setStartIndex(dto.getStartIndex() != null ? dto.getStartIndex() : 0);\n```\n")
+                        .append("   **修改建议：**\n> 定义一个常量代替直接赋值为0\n");
+            }
+            markdown.append("\n---\n\n");
+        }
+        return markdown.toString();
+    }
+}